@@ -1,4 +1,5 @@
 import org.junit.Test;
+import java.util.TreeMap;
 import static org.junit.Assert.assertEquals;
 
 public class BSTTesting {
@@ -30,6 +31,205 @@ public class BSTTesting {
         assertEquals("( ( x ) 2:Harry[1] ( ( x ) 3:Stephen[2] ( x ) ) ) 4:Paul[0] ( ( x ) 8:Ryan[1] ( x ) )", bst.toString());
     }
 
+    @Test
+    public void testMetrics() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
+        LcaMetrics metrics = new LcaMetrics();
+        bst.setMetrics(metrics);
+        bst.insert(5, "five");
+        bst.insert(3, "three");
+        bst.insert(8, "eight");
+        assertEquals(Integer.valueOf(5), bst.lowestCommonAncestor(3, 8));
+        assertEquals(null, bst.lowestCommonAncestor(3, 9));
+        bst.freeze();
+        assertEquals(Integer.valueOf(5), bst.lowestCommonAncestor(3, 8));
+        assertEquals(3, metrics.getQueries());
+
+        bst.setMetrics(null);
+        bst.lowestCommonAncestor(3, 8);
+        assertEquals(3, metrics.getQueries());
+    }
+
+    @Test
+    public void testQueryCache() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
+        bst.enableQueryCache(100, LcaCache.Policy.LRU);
+        bst.insert(5, "five");
+        bst.insert(3, "three");
+        bst.insert(8, "eight");
+        bst.insert(7, "seven");
+
+        //Both orders of a pair share one entry.
+        assertEquals(Integer.valueOf(5), bst.lowestCommonAncestor(3, 7));
+        assertEquals(Integer.valueOf(5), bst.lowestCommonAncestor(7, 3));
+        assertEquals(1, bst.getQueryCache().hits());
+        assertEquals(null, bst.lowestCommonAncestor(3, 9));
+        assertEquals(null, bst.lowestCommonAncestor(9, 3));
+        assertEquals(2, bst.getQueryCache().hits());
+
+        //Inserting invalidates the cached results.
+        bst.insert(9, "nine");
+        assertEquals(Integer.valueOf(5), bst.lowestCommonAncestor(3, 9));
+        assertEquals(Integer.valueOf(8), bst.lowestCommonAncestor(7, 9));
+        assertEquals(2, bst.getQueryCache().hits());
+    }
+
+    @Test
+    public void testBalancedInsert() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>(true);
+        bst.insert(null, "hello");
+        assertEquals("x", bst.toString());
+
+        //Sorted keys would give a list without balancing.
+        bst.insert(1, "A");
+        bst.insert(2, "B");
+        bst.insert(3, "C");
+        assertEquals("( ( x ) 1:A[1] ( x ) ) 2:B[0] ( ( x ) 3:C[1] ( x ) )", bst.toString());
+        bst.insert(4, "D");
+        bst.insert(5, "E");
+        bst.insert(6, "F");
+        bst.insert(7, "G");
+        assertEquals("( ( ( x ) 1:A[2] ( x ) ) 2:B[1] ( ( x ) 3:C[2] ( x ) ) ) 4:D[0] ( ( ( x ) 5:E[2] ( x ) ) 6:F[1] ( ( x ) 7:G[2] ( x ) ) )", bst.toString());
+
+        //Replacing a value keeps the shape.
+        bst.insert(6, "Z");
+        assertEquals("Z", bst.getValue(6));
+        assertEquals(2, bst.height());
+        assertEquals(4, (int)bst.lowestCommonAncestor(1, 7));
+        assertEquals(6, (int)bst.lowestCommonAncestor(5, 7));
+        assertEquals(null, bst.lowestCommonAncestor(5, 8));
+    }
+
+    @Test
+    public void testBalancedDepth() {
+        BinarySearchTree<Integer, Integer> balanced = new BinarySearchTree<Integer, Integer>(true);
+        BinarySearchTree<Integer, Integer> unbalanced = new BinarySearchTree<Integer, Integer>();
+        for (int i = 0; i < 2000; i++) {
+            balanced.insert(i, i);
+            unbalanced.insert(i, i);
+        }
+        assertEquals(1999, unbalanced.height());
+        assertEquals(true, balanced.height() <= 2 * 11);   //2 log2(2001)
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i, (int)balanced.getValue(i));
+        }
+        assertEquals(false, balanced.contains(2000));
+    }
+
+    @Test
+    public void testFromSorted() {
+        Integer[] keys = {1, 2, 3, 4, 5, 6, 7};
+        String[] values = {"A", "B", "C", "D", "E", "F", "G"};
+        BinarySearchTree<Integer, String> plain = BinarySearchTree.fromSorted(keys, values, false);
+        assertEquals("( ( ( x ) 1:A[2] ( x ) ) 2:B[1] ( ( x ) 3:C[2] ( x ) ) ) 4:D[0] ( ( ( x ) 5:E[2] ( x ) ) 6:F[1] ( ( x ) 7:G[2] ( x ) ) )", plain.toString());
+        assertEquals(6, (int)plain.lowestCommonAncestor(5, 7));
+
+        TreeMap<Integer, Integer> map = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < 2000; i++) {
+            map.put(i * 3, i);
+        }
+        BinarySearchTree<Integer, Integer> balanced = BinarySearchTree.fromSorted(map.entrySet().iterator(), true);
+        assertEquals(true, balanced.height() <= 11);   //One more than log2(2000)
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i, (int)balanced.getValue(i * 3));
+        }
+        assertEquals(false, balanced.contains(1));
+
+        //Inserts after a bulk build keep the tree balanced.
+        for (int i = 0; i < 2000; i++) {
+            balanced.insert(i * 3 + 1, -i);
+        }
+        assertEquals(true, balanced.height() <= 2 * 12);
+        assertEquals(-5, (int)balanced.getValue(16));
+        assertEquals(-999, (int)balanced.getValue(2998));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromSortedNullKey() {
+        BinarySearchTree.fromSorted(new Integer[] {1, null}, new String[] {"A", "B"}, true);
+    }
+
+    @Test
+    public void testMergeSorted() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>(true);
+        bst.insert(2, "B");
+        bst.insert(4, "D");
+        bst.insert(6, "F");
+        assertEquals(4, (int)bst.lowestCommonAncestor(2, 6));
+
+        //New keys are added, and existing ones take the new value.
+        bst.mergeSorted(new Integer[] {1, 3, 4, 5, 7}, new String[] {"A", "C", "X", "E", "G"});
+        assertEquals("( ( ( x ) 1:A[2] ( x ) ) 2:B[1] ( ( x ) 3:C[2] ( x ) ) ) 4:X[0] ( ( ( x ) 5:E[2] ( x ) ) 6:F[1] ( ( x ) 7:G[2] ( x ) ) )", bst.toString());
+        assertEquals(2, (int)bst.lowestCommonAncestor(1, 3));
+
+        //Merging into an empty tree is a bulk build.
+        BinarySearchTree<Integer, String> empty = new BinarySearchTree<Integer, String>();
+        empty.mergeSorted(new Integer[] {1, 2, 3}, new String[] {"A", "B", "C"});
+        assertEquals("( ( x ) 1:A[1] ( x ) ) 2:B[0] ( ( x ) 3:C[1] ( x ) )", empty.toString());
+    }
+
+    @Test
+    public void testMergeSortedBadBatch() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
+        bst.insert(2, "B");
+        bst.insert(1, "A");
+        bst.insert(3, "C");
+        String before = bst.toString();
+
+        //A bad batch is rejected before any existing key takes its new value.
+        Integer[][] keys = {{1, 2, null}, {1, 2, 3}, {1, 3, 2}, {1, 1, 2}};
+        String[][] values = {{"X", "Y", "Z"}, {"X", "Y", null}, {"X", "Y", "Z"}, {"X", "Y", "Z"}};
+        for (int i = 0; i < keys.length; i++) {
+            try {
+                bst.mergeSorted(keys[i], values[i]);
+                org.junit.Assert.fail("Batch " + i + " should be rejected.");
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals(before, bst.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteDot() throws java.io.IOException {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
+        StringBuilder out = new StringBuilder();
+        bst.writeDot(out);
+        assertEquals("digraph {\n}\n", out.toString());
+
+        bst.insert(4, "Paul");
+        bst.insert(2, "Aaron");
+        bst.insert(3, "Say \"hi\"");
+        bst.insert(8, "Ryan");
+        out.setLength(0);
+        bst.writeDot(out);
+        assertEquals("digraph {\n  0 [label=\"4:Paul\"];\n  0 -> 1;\n  0 -> 2;\n  1 [label=\"2:Aaron\"];\n  1 -> 3;\n"
+                + "  3 [label=\"3:Say \\\"hi\\\"\"];\n  2 [label=\"8:Ryan\"];\n}\n", out.toString());
+
+        out.setLength(0);
+        bst.writeEdgeList(out);
+        assertEquals("4 2\n4 8\n2 3\n", out.toString());
+
+        out.setLength(0);
+        bst.writeTo(out);
+        assertEquals(bst.toString(), out.toString());
+    }
+
+    @Test
+    public void testDeepTree() {
+        //Sorted inserts without balancing give a list deep enough to overflow recursive walks.
+        BinarySearchTree<Integer, Integer> bst = new BinarySearchTree<Integer, Integer>();
+        for (int i = 0; i < 20000; i++) {
+            bst.insert(i, i);
+        }
+        assertEquals(19999, (int)bst.getValue(19999));
+        assertEquals(true, bst.contains(10000));
+        assertEquals(100, (int)bst.lowestCommonAncestor(100, 19999));
+        assertEquals(null, bst.lowestCommonAncestor(100, 20000));
+        assertEquals(true, bst.toString().startsWith("( x ) 0:0[0] ( ( x ) 1:1[1] ( ( x ) 2:2[2] ( "));
+    }
+
     @Test
     public void testLowestCommonAncestor() {
         BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
@@ -66,6 +266,72 @@ public class BSTTesting {
         assertEquals(null, bst.lowestCommonAncestor(5, 6));
     }
 
+    @Test
+    public void testFrozenLowestCommonAncestor() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
+        bst.freeze();
+        assertEquals(null, bst.lowestCommonAncestor(2, 4));
+
+        bst.insert(1, "A");
+        bst.insert(8, "B");
+        bst.insert(3, "C");
+        bst.insert(10,"D");
+        bst.insert(6, "E");
+        bst.insert(2, "F");
+        bst.insert(4, "G");
+        assertEquals(false, bst.isFrozen());
+        bst.freeze();
+        assertEquals(true, bst.isFrozen());
+
+        assertEquals(3, (int)bst.lowestCommonAncestor(2, 6));
+        assertEquals(8, (int)bst.lowestCommonAncestor(4, 10));
+        assertEquals(1, (int)bst.lowestCommonAncestor(1, 8));
+        assertEquals(3, (int)bst.lowestCommonAncestor(3, 6));
+        assertEquals(2, (int)bst.lowestCommonAncestor(2, 2));
+        assertEquals(null, bst.lowestCommonAncestor(5, 6));
+        assertEquals(null, bst.lowestCommonAncestor(null, 6));
+
+        //Inserting leaves query mode, and later queries see the new node.
+        bst.insert(5, "H");
+        assertEquals(false, bst.isFrozen());
+        assertEquals(6, (int)bst.lowestCommonAncestor(5, 6));
+    }
+
+    @Test
+    public void testFrozenKeysMatchByCompareTo() {
+        //1.00 is not equal to 1.0, but compares the same, so the tree finds it.
+        BinarySearchTree<java.math.BigDecimal, String> bst = new BinarySearchTree<java.math.BigDecimal, String>();
+        bst.insert(new java.math.BigDecimal("1.0"), "A");
+        bst.insert(new java.math.BigDecimal("2.0"), "B");
+        java.math.BigDecimal key1 = new java.math.BigDecimal("1.00"), key2 = new java.math.BigDecimal("2.0");
+        java.math.BigDecimal expected = bst.lowestCommonAncestor(key1, key2);
+        assertEquals(new java.math.BigDecimal("1.0"), expected);
+
+        bst.freeze();
+        assertEquals(expected, bst.lowestCommonAncestor(key1, key2));
+    }
+
+    @Test
+    public void testFrozenLowestCommonAncestorAcrossBlocks() {
+        //A tree whose Euler tour spans many blocks, checked against the unfrozen descent.
+        BinarySearchTree<Integer, Integer> bst = new BinarySearchTree<Integer, Integer>();
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 500; i++) {
+            int key = random.nextInt(1000);
+            bst.insert(key, key);
+        }
+
+        Integer[] keys1 = new Integer[2000];
+        Integer[] keys2 = new Integer[2000];
+        for (int i = 0; i < keys1.length; i++) {
+            keys1[i] = random.nextInt(1000);
+            keys2[i] = random.nextInt(1000);
+        }
+        java.util.ArrayList<Integer> expected = bst.lowestCommonAncestors(keys1, keys2);
+        bst.freeze();
+        assertEquals(expected, bst.lowestCommonAncestors(keys1, keys2));
+    }
+
     @Test
     public void testContains() {
         BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
@@ -134,4 +400,4 @@ public class BSTTesting {
     }
 
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentBSTTesting {
+    @Test
+    public void testInsert() {
+        ConcurrentBinarySearchTree<Integer, String> bst = new ConcurrentBinarySearchTree<Integer, String>();
+        assertEquals(null, bst.getValue(4));
+        assertEquals(null, bst.lowestCommonAncestor(2, 4));
+
+        bst.insert(null, "hello");
+        bst.insert(4, null);
+        assertEquals(false, bst.contains(4));
+
+        bst.insert(1, "A");
+        bst.insert(2, "B");
+        bst.insert(3, "C");
+        bst.insert(4, "D");
+        bst.insert(5, "E");
+        bst.insert(6, "F");
+        bst.insert(7, "G");
+        bst.insert(2, "H");
+        assertEquals("H", bst.getValue(2));
+        assertEquals(2, bst.height());
+
+        //Same shape as the balanced BinarySearchTree, so the same ancestors.
+        assertEquals(4, (int)bst.lowestCommonAncestor(1, 7));
+        assertEquals(6, (int)bst.lowestCommonAncestor(5, 7));
+        assertEquals(2, (int)bst.lowestCommonAncestor(2, 3));
+        assertEquals(3, (int)bst.lowestCommonAncestor(3, 3));
+        assertEquals(null, bst.lowestCommonAncestor(5, 8));
+        assertEquals(null, bst.lowestCommonAncestor(null, 5));
+    }
+
+    @Test
+    public void testConcurrentInsertAndRead() throws InterruptedException {
+        final ConcurrentBinarySearchTree<Integer, Integer> bst = new ConcurrentBinarySearchTree<Integer, Integer>();
+        final int writers = 8, keysPerWriter = 5000;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger progress = new AtomicInteger();    //Keys 0..progress-1 of writer 0 are in.
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    //Interleaved key ranges, each in increasing order.
+                    for (int i = 0; i < keysPerWriter; i++) {
+                        bst.insert(i * writers + writer, i);
+                        if (writer == 0) {
+                            progress.set(i + 1);
+                        }
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < 4; r++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            //Anything writer 0 has published must stay visible with its value.
+                            int seen = progress.get();
+                            if (seen > 0) {
+                                int key = (seen - 1) * writers;
+                                assertEquals(seen - 1, (int)bst.getValue(key));
+                                Integer ancestor = bst.lowestCommonAncestor(0, key);
+                                assertEquals(true, ancestor != null && ancestor >= 0 && ancestor <= key);
+                            }
+                        }
+                    }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (int w = 0; w < writers; w++) {
+            threads.get(w).join();
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(null, failure.get());
+        for (int key = 0; key < writers * keysPerWriter; key++) {
+            assertEquals(key / writers, (int)bst.getValue(key));
+        }
+        assertEquals(true, bst.height() <= 2 * 16);    //2 log2(40001)
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentDAGTests {
+    @Test
+    public void testPublish() {
+        ConcurrentDAG dag = new ConcurrentDAG(10);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        assertEquals("[]", dag.lowestCommonAncestors(3, 5).toString());
+
+        dag.publish();
+        assertEquals("[0]", dag.lowestCommonAncestors(3, 5).toString());
+
+        DAG held = dag.snapshot();
+        dag.addEdges(new int[] {2, 3, 2, 5});
+        dag.publish();
+        assertEquals("[0, 2]", dag.lowestCommonAncestors(3, 5).toString());
+        assertEquals("[0]", held.lowestCommonAncestors(3, 5).toString());
+        assertEquals(null, dag.lowestCommonAncestors(3, 10));
+    }
+
+    @Test
+    public void testConcurrentQueries() throws InterruptedException {
+        // The writer grows a chain 0->1->...->n one edge per publish. Every published snapshot must
+        // be a prefix of that chain, so the ancestors of the end of the chain and its parent are
+        // always the parent alone.
+        final int vertices = 400;
+        final ConcurrentDAG dag = new ConcurrentDAG(vertices);
+        dag.enableAncestorIndex(1 << 20);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        ArrayList<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            DAG snapshot = dag.snapshot();
+                            int end = 0;
+                            while (end + 1 < vertices && !snapshot.lowestCommonAncestors(0, end + 1).isEmpty()) {
+                                end++;
+                            }
+                            if (end > 1) {
+                                assertEquals("[" + (end - 1) + "]", snapshot.lowestCommonAncestors(end - 1, end).toString());
+                            }
+                        }
+                    }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (int v = 1; v < vertices; v++) {
+            dag.addEdge(v - 1, v);
+            dag.publish();
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(null, failure.get());
+        assertEquals("[0]", dag.lowestCommonAncestors(0, vertices - 1).toString());
+    }
+}
@@ -34,9 +34,41 @@ public class DAGTests {
         dag.addEdge(2, 9);
         assertEquals("0: 9 4 \n1: \n2: 9 \n3: \n4: \n5: \n6: \n7: \n8: \n9: \n", dag.toString());
 
-        //Attempt to add edge between 0 and non-existent vertex.
+        //Add edge to a vertex past the last one. The graph grows to include it.
         dag.addEdge(0, 10);
-        assertEquals("0: 9 4 \n1: \n2: 9 \n3: \n4: \n5: \n6: \n7: \n8: \n9: \n", dag.toString());
+        assertEquals("0: 9 4 10 \n1: \n2: 9 \n3: \n4: \n5: \n6: \n7: \n8: \n9: \n10: \n", dag.toString());
+
+        //Attempt to add edge with a negative vertex.
+        dag.addEdge(-1, 0);
+        assertEquals(11, dag.vertices());
+    }
+
+    @Test
+    public void testGrowth() {
+        DAG dag = new DAG();
+        assertEquals(0, dag.vertices());
+        assertEquals(0, dag.addVertex());
+        assertEquals(1, dag.addVertex());
+        dag.addEdge(0, 1);
+
+        // Grow one vertex at a time, hanging each off the one before.
+        for (int v = 2; v < 5000; v++) {
+            assertEquals(v, dag.addVertex());
+            dag.addEdge(v - 1, v);
+        }
+        dag.addEdge(4999, 0);   // Closes a cycle.
+        assertEquals(5000, dag.vertices());
+        assertEquals("[3000]", dag.lowestCommonAncestors(4000, 3001).toString());
+
+        // Grow past a frozen table and through a batch.
+        dag.freeze();
+        dag.addEdge(10, 6000);
+        int[] rejected = dag.addEdges(new int[] {6000, 7000, 7000, 20});
+        assertEquals(7001, dag.vertices());
+        assertEquals(0, rejected.length);
+        assertEquals("[10]", dag.lowestCommonAncestors(11, 7000).toString());
+        dag.addEdge(20, 10);     // 10->6000->7000->20, so this closes a cycle.
+        assertEquals("[10]", dag.lowestCommonAncestors(11, 7000).toString());
     }
 
     @Test
@@ -58,6 +90,579 @@ public class DAGTests {
         assertEquals("0: 4 \n1: 3 5 \n2: \n3: 7 \n4: 6 \n5: 7 \n6: \n7: 9 \n8: \n9: \n", dag.toString());
     }
 
+    @Test
+    public void testAddCycleAgainstInsertionOrder() {
+        // Edges added from the bottom up, so each insert must reorder the vertices already placed.
+        DAG dag = new DAG(6);
+        dag.addEdge(4, 5);
+        dag.addEdge(3, 4);
+        dag.addEdge(2, 3);
+        dag.addEdge(1, 2);
+        dag.addEdge(0, 1);
+        assertEquals("0: 1 \n1: 2 \n2: 3 \n3: 4 \n4: 5 \n5: \n", dag.toString());
+
+        // Each of these would close a cycle through the chain.
+        dag.addEdge(5, 0);
+        dag.addEdge(5, 3);
+        dag.addEdge(4, 1);
+        dag.addEdge(2, 2);
+        assertEquals("0: 1 \n1: 2 \n2: 3 \n3: 4 \n4: 5 \n5: \n", dag.toString());
+
+        // Shortcuts along the chain are fine.
+        dag.addEdge(0, 5);
+        dag.addEdge(1, 4);
+        assertEquals("0: 1 5 \n1: 2 4 \n2: 3 \n3: 4 \n4: 5 \n5: \n", dag.toString());
+        assertEquals(false, dag.containsCycle());
+    }
+
+    @Test
+    public void testAddEdges() {
+        DAG dag = new DAG(6);
+        dag.addEdge(4, 5);
+        int[] rejected = dag.addEdges(new int[] {0, 1, 1, 2, 2, 3, 3, 4, 0, 2});
+        assertEquals("[]", java.util.Arrays.toString(rejected));
+        assertEquals("0: 1 2 \n1: 2 \n2: 3 \n3: 4 \n4: 5 \n5: \n", dag.toString());
+        assertEquals(false, dag.containsCycle());
+
+        // Duplicates and negative vertices are skipped, not reported. Vertex 6 is added.
+        rejected = dag.addEdges(new int[] {0, 1, 5, 6, -1, 0, 1, 3, 1, 3});
+        assertEquals("[]", java.util.Arrays.toString(rejected));
+        assertEquals("0: 1 2 \n1: 2 3 \n2: 3 \n3: 4 \n4: 5 \n5: 6 \n6: \n", dag.toString());
+    }
+
+    @Test
+    public void testVertexPastLargestGraph() {
+        // A vertex the graph could never grow to is ignored, not grown to.
+        DAG dag = new DAG(4);
+        LcaMetrics metrics = new LcaMetrics();
+        dag.setMetrics(metrics);
+        assertEquals(false, dag.addEdge(0, Integer.MAX_VALUE));
+        assertEquals(false, dag.addEdge(Integer.MAX_VALUE, 1));
+        int[] rejected = dag.addEdges(new int[] {0, Integer.MAX_VALUE, 0, 1});
+        assertEquals("[]", java.util.Arrays.toString(rejected));
+        assertEquals(4, dag.vertices());
+        assertEquals("0: 1 \n1: \n2: \n3: \n", dag.toString());
+        assertEquals(3, metrics.getIgnoredEdges());
+    }
+
+    @Test
+    public void testEdgeOrderDoesNotChangeResults() {
+        // The same graph, with its edges added in opposite orders.
+        java.util.Random random = new java.util.Random(5);
+        for (int round = 0; round < 50; round++) {
+            int vertices = 2 + random.nextInt(20);
+            int[] edges = new int[2 * random.nextInt(3 * vertices)];
+            for (int i = 0; i < edges.length; i += 2) {
+                int v = random.nextInt(vertices), w = random.nextInt(vertices);
+                edges[i] = Math.min(v, w);
+                edges[i + 1] = Math.max(v, w);
+            }
+
+            DAG forward = new DAG(vertices);
+            DAG backward = new DAG(vertices);
+            for (int i = 0; i < edges.length; i += 2)
+                forward.addEdge(edges[i], edges[i + 1]);
+            for (int i = edges.length - 2; i >= 0; i -= 2)
+                backward.addEdge(edges[i], edges[i + 1]);
+            for (int v1 = 0; v1 < vertices; v1++) {
+                for (int v2 = 0; v2 < vertices; v2++)
+                    assertEquals(forward.lowestCommonAncestors(v1, v2), backward.lowestCommonAncestors(v1, v2));
+            }
+        }
+    }
+
+    @Test
+    public void testAddEdgesWithCycles() {
+        DAG dag = new DAG(8);
+        dag.addEdge(0, 1);
+        dag.addEdge(1, 2);
+
+        // 2->0 closes 0-1-2-0. Of 3->4, 4->5 and 5->3, the last one added closes the cycle.
+        // 6->3 and 5->7 touch the cyclic region but are not on a cycle.
+        int[] rejected = dag.addEdges(new int[] {3, 4, 2, 0, 6, 3, 4, 5, 5, 3, 5, 7});
+        assertEquals("[2, 0, 5, 3]", java.util.Arrays.toString(rejected));
+        assertEquals("0: 1 \n1: 2 \n2: \n3: 4 \n4: 5 \n5: 7 \n6: 3 \n7: \n", dag.toString());
+        assertEquals(false, dag.containsCycle());
+
+        // The order adopted by the batch must still be valid for single inserts.
+        dag.addEdge(7, 6);
+        dag.addEdge(2, 6);
+        assertEquals("0: 1 \n1: 2 \n2: 6 \n3: 4 \n4: 5 \n5: 7 \n6: 3 \n7: \n", dag.toString());
+    }
+
+    @Test
+    public void testAddEdgesMatchesAddEdge() {
+        // Random graphs dense enough that many edges close cycles and are deferred.
+        java.util.Random random = new java.util.Random(11);
+        for (int round = 0; round < 50; round++) {
+            int vertices = 2 + random.nextInt(30);
+            int[] edges = new int[2 * random.nextInt(4 * vertices)];
+            for (int i = 0; i < edges.length; i++)
+                edges[i] = random.nextInt(vertices);
+
+            DAG batch = new DAG(vertices);
+            DAG single = new DAG(vertices);
+            batch.addEdges(edges);
+            for (int i = 0; i < edges.length; i += 2)
+                single.addEdge(edges[i], edges[i + 1]);
+            assertEquals(single.vertices(), batch.vertices());
+            for (int v1 = 0; v1 < vertices; v1++) {
+                for (int v2 = 0; v2 < vertices; v2++)
+                    assertEquals(single.lowestCommonAncestors(v1, v2), batch.lowestCommonAncestors(v1, v2));
+            }
+        }
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testAddEdgesOddLength() {
+        new DAG(3).addEdges(new int[] {0, 1, 2});
+    }
+
+    @Test
+    public void testAncestorIndex() {
+        DAG dag = new DAG(10);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(3, 7);
+        dag.addEdge(5, 7);
+        dag.addEdge(7, 8);
+        dag.addEdge(5, 9);
+        dag.addEdge(9, 4);
+        dag.enableAncestorIndex(1 << 20);
+
+        assertEquals("[]", dag.lowestCommonAncestors(5, 2).toString());
+        assertEquals("[0]", dag.lowestCommonAncestors(0, 9).toString());
+        assertEquals("[5]", dag.lowestCommonAncestors(8, 4).toString());
+        assertEquals("[5]", dag.lowestCommonAncestors(5, 4).toString());
+        assertEquals("[0]", dag.lowestCommonAncestors(3, 4).toString());
+
+        // Adding an edge must rebuild the index before the next query.
+        dag.addEdge(2, 8);
+        dag.addEdge(2, 9);
+        assertEquals("[2, 5]", dag.lowestCommonAncestors(8, 4).toString());
+
+        // A budget too small for every vertex falls back to searching for the rest.
+        dag.enableAncestorIndex(16);
+        assertEquals("[2, 5]", dag.lowestCommonAncestors(8, 4).toString());
+        assertEquals("[0]", dag.lowestCommonAncestors(3, 4).toString());
+
+        // An equal pair is its own ancestor, even out of range of the index.
+        assertEquals("[-1]", dag.lowestCommonAncestors(-1, -1).toString());
+        assertEquals("[10]", dag.lowestCommonAncestors(10, 10).toString());
+
+        dag.disableAncestorIndex();
+        assertEquals("[2, 5]", dag.lowestCommonAncestors(8, 4).toString());
+    }
+
+    @Test
+    public void testAncestorIndexWideGraph() {
+        // More than 64 vertices, so ancestor sets span several words.
+        DAG dag = new DAG(200);
+        for (int v = 1; v < 200; v++)
+            dag.addEdge(v - 1, v);
+        dag.addEdge(150, 199);
+        dag.addEdge(10, 120);
+        dag.enableAncestorIndex(1 << 20);
+        assertEquals("[150]", dag.lowestCommonAncestors(160, 199).toString());
+        assertEquals("[10, 119]", dag.lowestCommonAncestors(130, 120).toString());
+        assertEquals("[100]", dag.lowestCommonAncestors(100, 101).toString());
+    }
+
+    @Test
+    public void testFreeze() {
+        DAG dag = new DAG(6);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(2, 3);
+        dag.addEdge(2, 5);
+        dag.freeze();
+        assertEquals("0: 3 5 \n1: \n2: 3 5 \n3: \n4: \n5: \n", dag.toString());
+        assertEquals("[0, 2]", dag.lowestCommonAncestors(3, 5).toString());
+
+        // Adding to a frozen graph still checks for duplicates and cycles.
+        dag.addEdge(2, 5);
+        dag.addEdge(5, 2);
+        dag.addEdge(1, 5);
+        assertEquals("0: 3 5 \n1: 5 \n2: 3 5 \n3: \n4: \n5: \n", dag.toString());
+        assertEquals("[0, 2]", dag.lowestCommonAncestors(3, 5).toString());
+    }
+
+    @Test
+    public void testBatchLowestCommonAncestors() {
+        DAG dag = new DAG(10);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(3, 7);
+        dag.addEdge(5, 7);
+        dag.addEdge(7, 8);
+        dag.addEdge(5, 9);
+        dag.addEdge(9, 4);
+        dag.addEdge(2, 3);
+        dag.addEdge(2, 5);
+
+        int[] v1s = {-1, 5, 2, 0, 7, 8, 5, 3, 7, 3, 10, 12};
+        int[] v2s = {7, 2, 2, 9, 9, 4, 4, 4, 4, 5, 2, 12};
+        LcaResults results = dag.lowestCommonAncestors(v1s, v2s);
+        assertEquals(v1s.length, results.size());
+        for (int i = 0; i < v1s.length; i++)
+            assertEquals(dag.lowestCommonAncestors(v1s[i], v2s[i]), results.toList(i));
+
+        assertEquals(false, results.exists(0));
+        assertEquals(true, results.exists(9));
+        assertEquals(2, results.count(9));
+        assertEquals(0, results.get(9, 0));
+        assertEquals(2, results.get(9, 1));
+    }
+
+    @Test
+    public void testLargeBatchLowestCommonAncestors() {
+        // Enough pairs to be split between several tasks, with and without the ancestor index.
+        java.util.Random random = new java.util.Random(7);
+        DAG dag = new DAG(300);
+        for (int i = 0; i < 900; i++) {
+            int v = random.nextInt(300), w = random.nextInt(300);
+            dag.addEdge(Math.min(v, w), Math.max(v, w));
+        }
+        int[] v1s = new int[5000], v2s = new int[5000];
+        for (int i = 0; i < v1s.length; i++) {
+            v1s[i] = random.nextInt(40);
+            v2s[i] = random.nextInt(300);
+        }
+
+        LcaResults results = dag.lowestCommonAncestors(v1s, v2s);
+        dag.enableAncestorIndex(1 << 20);
+        LcaResults indexed = dag.lowestCommonAncestors(v1s, v2s);
+        for (int i = 0; i < v1s.length; i++) {
+            assertEquals(dag.lowestCommonAncestors(v1s[i], v2s[i]), results.toList(i));
+            assertEquals(results.toList(i), indexed.toList(i));
+        }
+
+        // Pairs of one v1 are not split between tasks, even when they fill the whole batch.
+        dag.disableAncestorIndex();
+        java.util.Arrays.fill(v1s, 3);
+        results = dag.lowestCommonAncestors(v1s, v2s);
+        for (int i = 0; i < v1s.length; i++)
+            assertEquals(dag.lowestCommonAncestors(v1s[i], v2s[i]), results.toList(i));
+    }
+
+    @Test
+    public void testSnapshot() {
+        DAG dag = new DAG(6);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        DAG snapshot = dag.snapshot();
+        assertEquals(true, snapshot.isReadOnly());
+        assertEquals(false, dag.isReadOnly());
+
+        // Later edges are not seen by the snapshot.
+        dag.addEdge(2, 3);
+        dag.addEdge(2, 5);
+        assertEquals("[0, 2]", dag.lowestCommonAncestors(3, 5).toString());
+        assertEquals("[0]", snapshot.lowestCommonAncestors(3, 5).toString());
+        assertEquals("0: 3 5 \n1: \n2: \n3: \n4: \n5: \n", snapshot.toString());
+        assertEquals("[0, 2]", dag.snapshot().lowestCommonAncestors(3, 5).toString());
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void testSnapshotAddEdge() {
+        new DAG(3).snapshot().addEdge(0, 1);
+    }
+
+    @Test
+    public void testSaveAndOpen() throws java.io.IOException {
+        DAG dag = new DAG(10);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(3, 7);
+        dag.addEdge(5, 7);
+        dag.addEdge(7, 8);
+        dag.addEdge(5, 9);
+        dag.addEdge(9, 4);
+
+        java.io.File file = java.io.File.createTempFile("dag", ".bin");
+        file.deleteOnExit();
+        dag.save(file.toPath());
+        DAG opened = DAG.open(file.toPath());
+        assertEquals(true, opened.isReadOnly());
+        assertEquals(dag.toString(), opened.toString());
+        assertEquals("[5]", opened.lowestCommonAncestors(8, 4).toString());
+        assertEquals("[0]", opened.lowestCommonAncestors(3, 4).toString());
+        assertEquals(null, opened.lowestCommonAncestors(3, 10));
+
+        // With the ancestor index, written and read back too.
+        dag.enableAncestorIndex(1 << 20);
+        dag.save(file.toPath());
+        opened = DAG.open(file.toPath());
+        assertEquals("[5]", opened.lowestCommonAncestors(8, 4).toString());
+        assertEquals("[0]", opened.lowestCommonAncestors(3, 4).toString());
+        assertEquals("[]", opened.lowestCommonAncestors(2, 4).toString());
+
+        // A graph opened from a file can be saved again.
+        java.io.File copy = java.io.File.createTempFile("dag", ".bin");
+        copy.deleteOnExit();
+        opened.save(copy.toPath());
+        assertEquals(dag.toString(), DAG.open(copy.toPath()).toString());
+    }
+
+    @Test (expected = java.io.IOException.class)
+    public void testOpenNotADagFile() throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("dag", ".bin");
+        file.deleteOnExit();
+        java.nio.file.Files.write(file.toPath(), "0 1\n1 2\n".getBytes("UTF-8"));
+        DAG.open(file.toPath());
+    }
+
+    @Test
+    public void testReadEdgeList() throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("edges", ".txt");
+        file.deleteOnExit();
+        String text = "# origin destination\n0 3\n0\t5\r\n\n3 7\n5,7\n7 8\n5 9\n9 4\n8 0\n3 7\n9 4";
+        java.nio.file.Files.write(file.toPath(), text.getBytes("UTF-8"));
+
+        // 8->0 closes a cycle and the repeated edges are duplicates, so all are skipped.
+        DAG dag = DAG.readEdgeList(file.toPath());
+        DAG expected = new DAG(10);
+        expected.addEdge(0, 3);
+        expected.addEdge(0, 5);
+        expected.addEdge(3, 7);
+        expected.addEdge(5, 7);
+        expected.addEdge(7, 8);
+        expected.addEdge(5, 9);
+        expected.addEdge(9, 4);
+        assertEquals(expected.toString(), dag.toString());
+        assertEquals("[5]", dag.lowestCommonAncestors(8, 4).toString());
+    }
+
+    @Test
+    public void testReadBinaryEdgeList() throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("edges", ".bin");
+        file.deleteOnExit();
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate(32).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(0).putInt(1).putInt(1).putInt(2).putInt(0).putInt(4).putInt(2).putInt(0);
+        java.nio.file.Files.write(file.toPath(), bytes.array());
+
+        DAG dag = DAG.readBinaryEdgeList(file.toPath());
+        assertEquals("0: 1 4 \n1: 2 \n2: \n3: \n4: \n", dag.toString());
+    }
+
+    @Test
+    public void testWriteEdgeLists() throws java.io.IOException {
+        DAG dag = new DAG(6);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 1);
+        dag.addEdge(3, 4);
+        dag.addEdge(1, 4);
+        dag.addEdge(4, 2);
+
+        StringBuilder text = new StringBuilder();
+        dag.writeTo(text);
+        assertEquals(dag.toString(), text.toString());
+
+        StringBuilder dot = new StringBuilder();
+        dag.writeDot(dot);
+        assertEquals("digraph {\n  0 -> 3;\n  0 -> 1;\n  1 -> 4;\n  2;\n  3 -> 4;\n  4 -> 2;\n  5;\n}\n", dot.toString());
+
+        // Both edge lists read back into the same graph, but for vertex 5, which has no edges.
+        java.io.File file = java.io.File.createTempFile("edges", ".txt");
+        file.deleteOnExit();
+        try (java.io.Writer out = java.nio.file.Files.newBufferedWriter(file.toPath())) {
+            dag.writeEdgeList(out);
+        }
+        assertEquals("0: 3 1 \n1: 4 \n2: \n3: 4 \n4: 2 \n", DAG.readEdgeList(file.toPath()).toString());
+
+        try (java.io.OutputStream out = java.nio.file.Files.newOutputStream(file.toPath())) {
+            dag.writeBinaryEdgeList(out);
+        }
+        assertEquals(40, file.length());
+        assertEquals("0: 3 1 \n1: 4 \n2: \n3: 4 \n4: 2 \n", DAG.readBinaryEdgeList(file.toPath()).toString());
+
+        DAG keyed = new DAG();
+        keyed.addEdge(-7L, 1L << 40);
+        dot.setLength(0);
+        keyed.writeDot(dot);
+        assertEquals("digraph {\n  0 [label=\"-7\"];\n  0 -> 1;\n  1 [label=\"1099511627776\"];\n}\n", dot.toString());
+    }
+
+    @Test (expected = java.io.IOException.class)
+    public void testReadMalformedEdgeList() throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("edges", ".txt");
+        file.deleteOnExit();
+        java.nio.file.Files.write(file.toPath(), "0 1\n1 2 3\n".getBytes("UTF-8"));
+        DAG.readEdgeList(file.toPath());
+    }
+
+    @Test
+    public void testExternalKeys() {
+        long a = 0x9e3779b97f4a7c15L, b = -42, c = Long.MIN_VALUE, d = 1L << 40, e = 7;
+        DAG dag = new DAG();
+        dag.addEdge(a, b);
+        dag.addEdge(a, c);
+        dag.addEdge(b, d);
+        dag.addEdge(c, d);
+        dag.addEdge(c, e);
+        dag.addEdge(e, a);  // Closes a cycle.
+        assertEquals(5, dag.vertices());
+        assertEquals(0, dag.vertex(a));
+        assertEquals(-1, dag.vertex(12345));
+        assertEquals(c, dag.key(dag.vertex(c)));
+
+        assertEquals("[" + c + "]", java.util.Arrays.toString(dag.lowestCommonAncestors(d, e)));
+        assertEquals("[" + a + "]", java.util.Arrays.toString(dag.lowestCommonAncestors(b, c)));
+        assertEquals(null, dag.lowestCommonAncestors(d, 12345L));
+
+        // Keys carry over to snapshots, and the snapshot is unaffected by new keys.
+        DAG snapshot = dag.snapshot();
+        dag.addEdge(b, 99L);
+        assertEquals("[" + c + "]", java.util.Arrays.toString(snapshot.lowestCommonAncestors(d, e)));
+        assertEquals(null, snapshot.lowestCommonAncestors(d, 99L));
+        assertEquals("[" + b + "]", java.util.Arrays.toString(dag.lowestCommonAncestors(d, 99L)));
+    }
+
+    @Test
+    public void testRejectedKeyedEdgeAddsNoKeys() {
+        DAG dag = new DAG();
+        assertEquals(false, dag.addEdge(5L, 5L));
+        assertEquals(0, dag.vertices());
+        assertEquals(-1, dag.vertex(5L));
+
+        dag.addEdge(5L, 6L);
+        assertEquals(false, dag.addEdge(6L, 5L));
+        assertEquals(false, dag.addEdge(5L, 6L));
+        assertEquals(2, dag.vertices());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testKeyOfUnkeyedVertex() {
+        DAG dag = new DAG();
+        dag.addEdge(1L, 2L);
+        dag.addEdge(40, 0);     // Past the room made for keys so far.
+        dag.key(40);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testKeyedAncestorWithoutKey() {
+        DAG dag = new DAG();
+        dag.addEdge(1L, 2L);
+        dag.addEdge(3L, 4L);
+        dag.addEdge(5, 1);
+        dag.addEdge(5, 3);
+        try {
+            dag.key(5);     // Within the room made for keys, but never given one.
+        } catch (IllegalArgumentException e) {
+            // The common ancestor of 2 and 4 is vertex 5, which has no key either.
+            dag.lowestCommonAncestors(2L, 4L);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws javax.management.JMException {
+        DAG dag = new DAG(10);
+        LcaMetrics metrics = new LcaMetrics();
+        dag.setMetrics(metrics);
+        assertEquals(true, dag.addEdge(0, 3));
+        assertEquals(true, dag.addEdge(0, 5));
+        assertEquals(true, dag.addEdge(3, 7));
+        assertEquals(true, dag.addEdge(5, 7));
+        assertEquals(false, dag.addEdge(5, 7));     // Duplicate.
+        assertEquals(false, dag.addEdge(7, 0));     // Closes a cycle.
+        assertEquals(false, dag.addEdge(-1, 0));    // Negative vertex.
+        dag.addEdges(new int[] {7, 8, 5, 9, 9, 4, 9, 4, 8, 3, -2, 1});
+        assertEquals(7, metrics.getEdgesAdded());
+        assertEquals(2, metrics.getDuplicateEdges());
+        assertEquals(2, metrics.getRejectedCycleEdges());
+        assertEquals(2, metrics.getIgnoredEdges());
+
+        // 8 has ancestors 8, 7, 3, 5 and 0. The search from 4 scans 9, then finds 5.
+        assertEquals("[5]", dag.lowestCommonAncestors(8, 4).toString());
+        assertEquals(1, metrics.getQueries());
+        assertEquals(2, metrics.getVerticesVisited());
+        assertEquals(2, metrics.getBfsLevels());
+        assertEquals(5, metrics.getAncestorsMarked());
+        assertEquals(true, metrics.getLatencyMaxNanos() >= metrics.getLatencyMedianNanos());
+
+        // Snapshots and batches record into the same metrics.
+        dag.snapshot().lowestCommonAncestors(3, 4);
+        dag.lowestCommonAncestors(new int[] {8, 8}, new int[] {4, 9});
+        assertEquals(4, metrics.getQueries());
+
+        javax.management.ObjectName name = metrics.register("DAGTests");
+        try {
+            Object queries = java.lang.management.ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Queries");
+            assertEquals(4L, queries);
+        } finally {
+            java.lang.management.ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+
+        metrics.reset();
+        assertEquals(0, metrics.getQueries());
+        assertEquals(0, metrics.getLatencyMaxNanos());
+    }
+
+    @Test
+    public void testBidirectionalSearch() {
+        // A long history with a short branch off near the end.
+        DAG dag = new DAG(1002);
+        for (int v = 0; v + 1 < 1000; v++)
+            dag.addEdge(v, v + 1);
+        dag.addEdge(995, 1000);
+        dag.addEdge(1000, 1001);
+        dag.freeze();
+        LcaMetrics metrics = new LcaMetrics();
+        dag.setMetrics(metrics);
+
+        // Only the ancestors of 999 down to 995 need to be marked to settle the search from 1001.
+        assertEquals("[995]", dag.lowestCommonAncestors(999, 1001).toString());
+        assertEquals(true, metrics.getAncestorsMarked() <= 6);
+        assertEquals("[995]", dag.lowestCommonAncestors(new int[] {999}, new int[] {1001}).toList(0).toString());
+
+        // Marking the whole closure first gives the same answers.
+        metrics.reset();
+        dag.setBidirectionalSearch(false);
+        assertEquals("[995]", dag.lowestCommonAncestors(999, 1001).toString());
+        assertEquals(1000, metrics.getAncestorsMarked());
+        assertEquals("[0]", dag.lowestCommonAncestors(1001, 1).toString());
+        dag.setBidirectionalSearch(true);
+        assertEquals("[0]", dag.lowestCommonAncestors(1001, 1).toString());
+    }
+
+    @Test
+    public void testQueryCache() {
+        DAG dag = new DAG(10);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(3, 7);
+        dag.addEdge(5, 7);
+        dag.addEdge(7, 8);
+        dag.addEdge(5, 9);
+        dag.addEdge(9, 4);
+        dag.enableQueryCache(100, LcaCache.Policy.TINY_LFU);
+        LcaCache cache = dag.getQueryCache();
+
+        assertEquals("[5]", dag.lowestCommonAncestors(8, 4).toString());
+        assertEquals("[5]", dag.lowestCommonAncestors(8, 4).toString());
+        assertEquals(1, cache.hits());
+
+        // The reverse order is a different query, with a different answer.
+        assertEquals("[5, 0]", dag.lowestCommonAncestors(4, 8).toString());
+        assertEquals(1, cache.hits());
+
+        // Adding an edge invalidates the cached results.
+        dag.addEdge(2, 8);
+        dag.addEdge(2, 4);
+        int[] buffer = new int[4];
+        assertEquals(1, dag.lowestCommonAncestors(8, 4, buffer));
+        assertEquals(2, buffer[0]);
+        assertEquals(1, cache.hits());
+
+        // Snapshots share the cache, and the results for their version of the graph.
+        DAG snapshot = dag.snapshot();
+        assertEquals("[2]", snapshot.lowestCommonAncestors(8, 4).toString());
+        assertEquals(2, cache.hits());
+        dag.disableQueryCache();
+        assertEquals(null, dag.getQueryCache());
+        assertEquals("[2]", dag.lowestCommonAncestors(8, 4).toString());
+    }
+
     @Test
     public void testLowestCommonAncestor() {
         DAG dag = new DAG(10);
@@ -98,4 +703,94 @@ public class DAGTests {
         assertEquals("[0, 2]", dag.lowestCommonAncestors(3, 5).toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testLowestCommonAncestorsSharedParent() {
+        // 6 is reached from 4 twice, through 1 and 2, but is only reported once.
+        DAG dag = new DAG(7);
+        dag.addEdge(6, 1);
+        dag.addEdge(6, 2);
+        dag.addEdge(1, 4);
+        dag.addEdge(2, 4);
+        dag.addEdge(6, 5);
+        assertEquals("[6]", dag.lowestCommonAncestors(5, 4).toString());
+    }
+
+    @Test
+    public void testLowestCommonAncestorsIntoBuffer() {
+        DAG dag = new DAG(6);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(2, 3);
+        dag.addEdge(2, 5);
+
+        int[] buffer = new int[4];
+        assertEquals(2, dag.lowestCommonAncestors(3, 5, buffer));
+        assertEquals(0, buffer[0]);
+        assertEquals(2, buffer[1]);
+        assertEquals(1, dag.lowestCommonAncestors(4, 4, buffer));
+        assertEquals(4, buffer[0]);
+        assertEquals(0, dag.lowestCommonAncestors(1, 3, buffer));
+        assertEquals(-1, dag.lowestCommonAncestors(1, 6, buffer));
+
+        // A short buffer is filled, and the full count returned.
+        int[] small = new int[1];
+        assertEquals(2, dag.lowestCommonAncestors(3, 5, small));
+        assertEquals(0, small[0]);
+    }
+
+    @Test
+    public void testDeepChain() {
+        // Far deeper than the call stack allows for recursive searches.
+        int length = 200000;
+        int[] edges = new int[2 * (length - 1)];
+        for (int v = 1; v < length; v++) {
+            edges[2 * v - 2] = v - 1;
+            edges[2 * v - 1] = v;
+        }
+        DAG dag = new DAG(length);
+        dag.addEdges(edges);
+        assertEquals(false, dag.containsCycle());
+        assertEquals("[" + (length - 2) + "]", dag.lowestCommonAncestors(length - 2, length - 1).toString());
+        assertEquals("[0]", dag.lowestCommonAncestors(0, length - 1).toString());
+    }
+
+    @Test
+    public void testLattice() {
+        // A grid where each vertex has edges right and down: the number of paths to the far corner
+        // grows exponentially, so the ancestors must only be visited once each.
+        int side = 60;
+        DAG dag = new DAG(side * side);
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                int v = row * side + column;
+                if (column + 1 < side)
+                    dag.addEdge(v, v + 1);
+                if (row + 1 < side)
+                    dag.addEdge(v, v + side);
+            }
+        }
+        int corner = side * side - 1;
+        assertEquals("[" + (corner - side - 1) + ", " + (corner - 2) + "]", dag.lowestCommonAncestors(corner, corner - 1).toString());
+        assertEquals("[0]", dag.lowestCommonAncestors(side - 1, side * (side - 1)).toString());
+    }
+
+    @Test
+    public void testLowestCommonAncestorsAfterAddEdge() {
+        // Parents recorded for earlier queries must pick up later edges.
+        DAG dag = new DAG(5);
+        dag.addEdge(0, 1);
+        dag.addEdge(0, 2);
+        assertEquals("[0]", dag.lowestCommonAncestors(1, 2).toString());
+
+        dag.addEdge(3, 1);
+        dag.addEdge(3, 2);
+        assertEquals("[0, 3]", dag.lowestCommonAncestors(1, 2).toString());
+
+        // Rejected edges must not be recorded as parents.
+        dag.addEdge(2, 3);
+        dag.addEdge(4, 2);
+        dag.addEdge(4, 2);
+        assertEquals("[0, 3]", dag.lowestCommonAncestors(1, 2).toString());
+    }
+
+}
@@ -0,0 +1,99 @@
+import org.junit.Test;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+
+public class EytzingerTreeTests {
+    @Test
+    public void testCompile() {
+        BinarySearchTree<Integer, String> bst = new BinarySearchTree<Integer, String>();
+        bst.insert(4, "D");
+        bst.insert(1, "A");
+        bst.insert(6, "F");
+        bst.insert(3, "C");
+        bst.insert(2, "B");
+        bst.insert(5, "E");
+        bst.insert(7, "G");
+        //The complete tree over seven keys:
+        //       4
+        //     /   \
+        //    2     6
+        //   / \   / \
+        //  1   3 5   7
+
+        EytzingerTree<Integer, String> tree = bst.compile();
+        assertEquals(7, tree.size());
+        assertEquals("A", tree.getValue(1));
+        assertEquals("G", tree.getValue(7));
+        assertEquals(null, tree.getValue(0));
+        assertEquals(null, tree.getValue(8));
+        assertEquals(null, tree.getValue(null));
+        assertEquals(true, tree.contains(3));
+        assertEquals(false, tree.contains(9));
+        assertEquals(2, (int)tree.lowestCommonAncestor(1, 3));
+        assertEquals(4, (int)tree.lowestCommonAncestor(3, 5));
+        assertEquals(6, (int)tree.lowestCommonAncestor(7, 6));
+        assertEquals(5, (int)tree.lowestCommonAncestor(5, 5));
+        assertEquals(null, tree.lowestCommonAncestor(5, 8));
+
+        //Later inserts do not change the compiled tree.
+        bst.insert(8, "H");
+        assertEquals(false, tree.contains(8));
+
+        IntEytzingerTree<String> ints = IntEytzingerTree.compile(bst);
+        assertEquals(8, ints.size());
+        assertEquals("H", ints.getValue(8));
+        assertEquals(null, ints.getValue(9));
+        assertEquals(-1, ints.lowestCommonAncestor(1, 9, -1));
+
+        LongEytzingerTree<String> longs = new LongEytzingerTree<String>(new long[] {-5, 1L << 40, Long.MAX_VALUE}, new String[] {"A", "B", "C"});
+        assertEquals("C", longs.getValue(Long.MAX_VALUE));
+        assertEquals(false, longs.contains(0));
+        assertEquals(1L << 40, longs.lowestCommonAncestor(-5, Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void testEmpty() {
+        EytzingerTree<Integer, String> tree = new BinarySearchTree<Integer, String>().compile();
+        assertEquals(0, tree.size());
+        assertEquals(null, tree.getValue(1));
+        assertEquals(null, tree.lowestCommonAncestor(1, 1));
+        assertEquals(false, new IntEytzingerTree<String>(new int[0], new String[0]).contains(0));
+    }
+
+    @Test
+    public void testMatchesPointerTree() {
+        //With 2^k - 1 keys, the complete tree is the perfectly balanced one fromSorted builds.
+        int size = 1023;
+        Integer[] keys = new Integer[size];
+        int[] intKeys = new int[size];
+        long[] longKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = i * 2;
+            intKeys[i] = i * 2;
+            longKeys[i] = i * 2;
+        }
+        BinarySearchTree<Integer, Integer> bst = BinarySearchTree.fromSorted(keys, keys, false);
+        EytzingerTree<Integer, Integer> tree = new EytzingerTree<Integer, Integer>(keys, keys);
+        IntEytzingerTree<Integer> ints = new IntEytzingerTree<Integer>(intKeys, keys);
+        LongEytzingerTree<Integer> longs = new LongEytzingerTree<Integer>(longKeys, keys);
+
+        for (int key = -1; key <= size * 2; key++) {
+            assertEquals(bst.getValue(key), tree.getValue(key));
+            assertEquals(bst.getValue(key), ints.getValue(key));
+            assertEquals(bst.getValue(key), longs.getValue(key));
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            int key1 = random.nextInt(size) * 2, key2 = random.nextInt(size) * 2;
+            int expected = bst.lowestCommonAncestor(key1, key2);
+            assertEquals(expected, (int)tree.lowestCommonAncestor(key1, key2));
+            assertEquals(expected, ints.lowestCommonAncestor(key1, key2, -1));
+            assertEquals(expected, longs.lowestCommonAncestor(key1, key2, -1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedKeys() {
+        new IntEytzingerTree<String>(new int[] {1, 3, 3}, new String[] {"A", "B", "C"});
+    }
+}
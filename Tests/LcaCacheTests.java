@@ -0,0 +1,113 @@
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class LcaCacheTests {
+    @Test
+    public void testLru() {
+        LcaCache cache = new LcaCache(3, LcaCache.Policy.LRU);
+        assertEquals(LcaCache.MISS, cache.get(1, null, null, 0));
+        cache.put(1, null, null, 0, "one");
+        cache.put(2, null, null, 0, "two");
+        cache.put(3, null, null, 0, "three");
+        assertEquals("one", cache.get(1, null, null, 0));
+
+        // 2 is now the least recently used, so it goes first.
+        cache.put(4, null, null, 0, "four");
+        assertEquals(3, cache.size());
+        assertEquals(LcaCache.MISS, cache.get(2, null, null, 0));
+        assertEquals("one", cache.get(1, null, null, 0));
+        assertEquals("four", cache.get(4, null, null, 0));
+        assertEquals(1, cache.evictions());
+        assertEquals(3, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(0.6, cache.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testVersion() {
+        LcaCache cache = new LcaCache(16, LcaCache.Policy.LRU);
+        cache.put(7, null, null, 1, "old");
+        assertEquals("old", cache.get(7, null, null, 1));
+        assertEquals(LcaCache.MISS, cache.get(7, null, null, 2));
+
+        // A newer result replaces the entry, and readers of the older version only miss.
+        cache.put(7, null, null, 2, "new");
+        assertEquals(LcaCache.MISS, cache.get(7, null, null, 1));
+        assertEquals("new", cache.get(7, null, null, 2));
+        cache.put(7, null, null, 1, "old");
+        assertEquals("new", cache.get(7, null, null, 2));
+        assertEquals(1, cache.size());
+
+        // A null result is cached like any other.
+        cache.put(8, null, null, 2, null);
+        assertEquals(null, cache.get(8, null, null, 2));
+    }
+
+    @Test
+    public void testCollidingKeys() {
+        // Two pairs that pack to the same key are told apart by their elements.
+        LcaCache cache = new LcaCache(16, LcaCache.Policy.LRU);
+        cache.put(5, "a", "b", 0, "first");
+        assertEquals(LcaCache.MISS, cache.get(5, "a", "c", 0));
+        assertEquals("first", cache.get(5, "a", "b", 0));
+    }
+
+    @Test
+    public void testTinyLfuKeepsHotEntries() {
+        // Under LRU, a long scan of one-off pairs flushes out the hot pairs between their uses.
+        // TinyLFU only lets a new pair in if it has been asked for more often than the one it replaces.
+        assertEquals(true, hotHits(LcaCache.Policy.TINY_LFU) > 4500);
+        assertEquals(true, hotHits(LcaCache.Policy.LRU) < 500);
+    }
+
+    /**
+     * Ask for 50 hot pairs in turn, between runs of 5 pairs that are never asked for again.
+     *
+     * @return How many of the 5000 lookups of hot pairs hit.
+     */
+    private static int hotHits(LcaCache.Policy policy) {
+        LcaCache cache = new LcaCache(100, policy);
+        int hits = 0;
+        long cold = 1000;
+        for (int i = 0; i < 5000; i++) {
+            long hot = i % 50;
+            if (cache.get(hot, null, null, 0) != LcaCache.MISS)
+                hits++;
+            else cache.put(hot, null, null, 0, "hot");
+            for (int j = 0; j < 5; j++, cold++) {
+                if (cache.get(cold, null, null, 0) == LcaCache.MISS)
+                    cache.put(cold, null, null, 0, "cold");
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    public void testConcurrentUse() throws InterruptedException {
+        final LcaCache cache = new LcaCache(1000, LcaCache.Policy.TINY_LFU);
+        final java.util.concurrent.atomic.AtomicInteger wrong = new java.util.concurrent.atomic.AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    java.util.Random random = new java.util.Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        long key = random.nextInt(5000);
+                        Object value = cache.get(key, null, null, 0);
+                        if (value == LcaCache.MISS)
+                            cache.put(key, null, null, 0, key);
+                        else if (!Long.valueOf(key).equals(value))
+                            wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(0, wrong.get());
+        assertEquals(true, cache.size() <= 1000);
+        assertEquals(400000, cache.hits() + cache.misses());
+    }
+}
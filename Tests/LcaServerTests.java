@@ -0,0 +1,216 @@
+import org.junit.Test;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import static org.junit.Assert.assertEquals;
+
+public class LcaServerTests {
+    @Test
+    public void testQueries() throws IOException {
+        DAG dag = new DAG(10);
+        dag.addEdge(0, 3);
+        dag.addEdge(0, 5);
+        dag.addEdge(3, 7);
+        dag.addEdge(5, 7);
+        dag.addEdge(7, 8);
+        dag.addEdge(5, 9);
+        dag.addEdge(9, 4);
+        dag.addEdge(100L, 200L);
+        dag.addEdge(100L, 300L);
+
+        BinarySearchTree<Long, String> bst = new BinarySearchTree<Long, String>();
+        for (long key = 1; key <= 7; key++)
+            bst.insert(key, "value " + key);
+
+        try (LcaServer server = new LcaServer(new InetSocketAddress("127.0.0.1", 0));
+             Socket socket = new Socket("127.0.0.1", server.port())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // Nothing is published yet.
+            writeRequest(out, 1, LcaServer.DAG_LCA, 1);
+            out.writeInt(8);
+            out.writeInt(4);
+            out.flush();
+            assertEquals("No graph is published.", readError(in, 1));
+
+            server.publish(dag);
+            server.publish(bst);
+            dag.addEdge(1, 2);  // Not seen until published again.
+
+            // Two requests pipelined: a batch of graph queries, and tree lookups.
+            writeRequest(out, 2, LcaServer.DAG_LCA, 4);
+            out.writeInt(8);
+            out.writeInt(4);
+            out.writeInt(3);
+            out.writeInt(3);
+            out.writeInt(0);
+            out.writeInt(42);
+            out.writeInt(1);
+            out.writeInt(2);
+            writeRequest(out, 3, LcaServer.TREE_GET, 2);
+            out.writeLong(6);
+            out.writeLong(8);
+            out.flush();
+
+            readHeader(in, 2);
+            assertEquals(1, in.readInt());
+            assertEquals(5, in.readInt());
+            assertEquals(1, in.readInt());
+            assertEquals(3, in.readInt());
+            assertEquals(-1, in.readInt());
+            assertEquals(0, in.readInt());
+            readHeader(in, 3);
+            assertEquals(7, in.readInt());
+            byte[] value = new byte[7];
+            in.readFully(value);
+            assertEquals("value 6", new String(value, "UTF-8"));
+            assertEquals(-1, in.readInt());
+
+            writeRequest(out, 4, LcaServer.DAG_KEY_LCA, 1);
+            out.writeLong(200);
+            out.writeLong(300);
+            writeRequest(out, 5, LcaServer.TREE_LCA, 2);
+            out.writeLong(1);
+            out.writeLong(3);
+            out.writeLong(1);
+            out.writeLong(9);
+            writeRequest(out, 6, (byte) 99, 0);
+            out.flush();
+
+            readHeader(in, 4);
+            assertEquals(1, in.readInt());
+            assertEquals(100, in.readLong());
+            readHeader(in, 5);
+            assertEquals(1, in.readByte());
+            assertEquals(1, in.readLong());     // Keys were inserted in order, so 1 is the root.
+            assertEquals(0, in.readByte());
+            assertEquals(0, in.readLong());
+            assertEquals("Unknown op 99.", readError(in, 6));
+
+            // Publishing again serves the new edge.
+            server.publish(dag);
+            writeRequest(out, 7, LcaServer.DAG_LCA, 1);
+            out.writeInt(1);
+            out.writeInt(2);
+            out.flush();
+            readHeader(in, 7);
+            assertEquals(1, in.readInt());
+            assertEquals(1, in.readInt());
+        }
+    }
+
+    @Test
+    public void testTreeLcaMatchesPublishedTree() throws IOException {
+        // An unbalanced tree, whose shape differs from the complete tree over the same keys.
+        BinarySearchTree<Long, String> bst = new BinarySearchTree<Long, String>();
+        long[] keys = {5, 1, 2, 3, 4, 9, 7, 8, 6, 10};
+        for (long key : keys)
+            bst.insert(key, "value " + key);
+
+        try (LcaServer server = new LcaServer(new InetSocketAddress("127.0.0.1", 0));
+             Socket socket = new Socket("127.0.0.1", server.port())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            server.publish(bst);
+            bst.insert(11L, "value 11");    // Not seen until published again.
+
+            writeRequest(out, 1, LcaServer.TREE_LCA, 11 * 11);
+            for (long key1 = 1; key1 <= 11; key1++) {
+                for (long key2 = 1; key2 <= 11; key2++) {
+                    out.writeLong(key1);
+                    out.writeLong(key2);
+                }
+            }
+            out.flush();
+
+            readHeader(in, 1);
+            for (long key1 = 1; key1 <= 11; key1++) {
+                for (long key2 = 1; key2 <= 11; key2++) {
+                    Long expected = key1 == 11 || key2 == 11 ? null : bst.lowestCommonAncestor(key1, key2);
+                    assertEquals(expected != null ? 1 : 0, in.readByte());
+                    assertEquals(expected != null ? (long) expected : 0, in.readLong());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFailedQueryKeepsConnection() throws IOException {
+        BinarySearchTree<Long, Object> bst = new BinarySearchTree<Long, Object>();
+        bst.insert(1L, "value 1");
+        bst.insert(2L, new Object() {
+            public String toString() {
+                throw new IllegalStateException("Broken value.");
+            }
+        });
+
+        try (LcaServer server = new LcaServer(new InetSocketAddress("127.0.0.1", 0));
+             Socket socket = new Socket("127.0.0.1", server.port())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            server.publish(bst);
+
+            // The failed lookup is answered with an error, and the connection stays open.
+            writeRequest(out, 1, LcaServer.TREE_GET, 2);
+            out.writeLong(1);
+            out.writeLong(2);
+            out.flush();
+            assertEquals("Broken value.", readError(in, 1));
+
+            // A frame larger than the initial buffers, and then a small one after they shrink.
+            int count = 2000;
+            writeRequest(out, 2, LcaServer.TREE_GET, count);
+            for (int i = 0; i < count; i++)
+                out.writeLong(1);
+            out.flush();
+            readHeader(in, 2);
+            for (int i = 0; i < count; i++) {
+                assertEquals(7, in.readInt());
+                in.readFully(new byte[7]);
+            }
+            writeRequest(out, 3, LcaServer.TREE_GET, 1);
+            out.writeLong(3);
+            out.flush();
+            readHeader(in, 3);
+            assertEquals(-1, in.readInt());
+        }
+    }
+
+    @Test
+    public void testMalformedFrameClosesConnection() throws IOException {
+        try (LcaServer server = new LcaServer(new InetSocketAddress("127.0.0.1", 0));
+             Socket socket = new Socket("127.0.0.1", server.port())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(-5);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    private static void writeRequest(DataOutputStream out, int id, byte op, int count) throws IOException {
+        int itemBytes = op == LcaServer.DAG_LCA ? 8 : op == LcaServer.TREE_GET ? 8 : 16;
+        out.writeInt(9 + count * itemBytes);
+        out.writeInt(id);
+        out.writeByte(op);
+        out.writeInt(count);
+    }
+
+    private static int readHeader(DataInputStream in, int id) throws IOException {
+        int length = in.readInt();
+        assertEquals(id, in.readInt());
+        assertEquals(LcaServer.OK, in.readByte());
+        return length;
+    }
+
+    private static String readError(DataInputStream in, int id) throws IOException {
+        int length = in.readInt();
+        assertEquals(id, in.readInt());
+        assertEquals(LcaServer.ERROR, in.readByte());
+        byte[] message = new byte[length - 5];
+        in.readFully(message);
+        return new String(message, "UTF-8");
+    }
+}
@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BinarySearchTree inserts, lookups and lowest common ancestor queries, for keys inserted in
+ * random or sorted order, in the plain and the balanced tree.
+ *
+ * Sorted inserts into the plain tree build a single path, so each insert is linear and the
+ * setup is quadratic. That case is refused above 10^5 keys rather than left to run for days.
+ *
+ * fromSorted builds the same tree from the keys sorted up front, in linear time, for comparison
+ * with insert. Its cost does not depend on the order parameter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BstBenchmark {
+    private static final int QUERIES = 1 << 12;   // Keys cycled through, a power of two.
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"random", "sorted"})
+    public String order;
+
+    @Param({"false", "true"})
+    public boolean balanced;
+
+    private Integer[] keys, sortedKeys;
+    private Integer[] queries1, queries2;
+    private Object tree, frozenTree;
+    private int next;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Inserts {
+        public long inserts;
+    }
+
+    @Setup
+    public void setUp() {
+        if (!balanced && order.equals("sorted") && size > 100000)
+            throw new IllegalStateException("Sorted inserts into the plain tree are quadratic; skipped at this size.");
+        keys = Workloads.keys(order, size, 42);
+        sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        tree = build();
+        frozenTree = build();
+        Library.freezeTree(frozenTree);
+        queries1 = Workloads.sample(keys, QUERIES, 1);
+        queries2 = Workloads.sample(keys, QUERIES, 2);
+    }
+
+    private Object build() {
+        Object tree = Library.newBinarySearchTree(balanced);
+        for (Integer key : keys)
+            Library.insert(tree, key, key);
+        return tree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object insert(Inserts counter) {
+        counter.inserts += keys.length;
+        return build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object fromSorted(Inserts counter) {
+        counter.inserts += sortedKeys.length;
+        return Library.fromSorted(sortedKeys, sortedKeys, balanced);
+    }
+
+    @Benchmark
+    public Object getValue() {
+        return Library.getValue(tree, queries1[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Object lowestCommonAncestor() {
+        int i = next++ & (QUERIES - 1);
+        return Library.lowestCommonAncestor(tree, queries1[i], queries2[i]);
+    }
+
+    @Benchmark
+    public Object frozenLowestCommonAncestor() {
+        int i = next++ & (QUERIES - 1);
+        return Library.lowestCommonAncestor(frozenTree, queries1[i], queries2[i]);
+    }
+}
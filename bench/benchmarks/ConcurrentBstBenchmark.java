@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ConcurrentBinarySearchTree shared between threads. Inserts replace random existing keys, so
+ * the tree keeps its size. Run with -t 1, 2, 4, ... 32 to see how it scales with threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConcurrentBstBenchmark {
+    private static final int QUERIES = 1 << 12;   // Keys cycled through by each thread, a power of two.
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Object tree;
+    private Integer[] keys;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private Integer[] queries1, queries2;
+        private int next;
+
+        @Setup
+        public void setUp(ConcurrentBstBenchmark benchmark) {
+            long seed = Thread.currentThread().getId();
+            queries1 = Workloads.sample(benchmark.keys, QUERIES, seed);
+            queries2 = Workloads.sample(benchmark.keys, QUERIES, ~seed);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        keys = Workloads.keys("random", size, 42);
+        tree = Library.newConcurrentBinarySearchTree();
+        for (Integer key : keys)
+            Library.concurrentInsert(tree, key, key);
+    }
+
+    @Benchmark
+    public Object getValue(Cursor cursor) {
+        return Library.concurrentGetValue(tree, cursor.queries1[cursor.next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public void insert(Cursor cursor) {
+        Integer key = cursor.queries1[cursor.next++ & (QUERIES - 1)];
+        Library.concurrentInsert(tree, key, key);
+    }
+
+    @Benchmark
+    public Object lowestCommonAncestor(Cursor cursor) {
+        int i = cursor.next++ & (QUERIES - 1);
+        return Library.concurrentLowestCommonAncestor(tree, cursor.queries1[i], cursor.queries2[i]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Object mixedGetValue(Cursor cursor) {
+        return getValue(cursor);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedInsert(Cursor cursor) {
+        insert(cursor);
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a DAG from scratch, one edge at a time with addEdge and as one batch with addEdges.
+ * Each operation builds the whole graph; the edges counter reports edges added per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DagBuildBenchmark {
+    @Param({"random", "chain", "lattice", "wide"})
+    public String shape;
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private int[] edges;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Edges {
+        public long edges;
+    }
+
+    @Setup
+    public void setUp() {
+        edges = Workloads.dagEdges(shape, size, 42);
+    }
+
+    @Benchmark
+    public Object addEdge(Edges counter) {
+        Object dag = Library.newDag(size);
+        for (int i = 0; i < edges.length; i += 2)
+            Library.addEdge(dag, edges[i], edges[i + 1]);
+        counter.edges += edges.length / 2;
+        return dag;
+    }
+
+    @Benchmark
+    public Object addEdges(Edges counter) {
+        Object dag = Library.newDag(size);
+        Library.addEdges(dag, edges);
+        counter.edges += edges.length / 2;
+        return dag;
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lowest common ancestor queries on a frozen DAG, between random pairs of vertices, with and
+ * without the ancestor index. Sample mode gives the latency percentiles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DagLcaBenchmark {
+    private static final int QUERIES = 1 << 12;   // Pairs cycled through, a power of two.
+
+    @Param({"random", "chain", "lattice", "wide"})
+    public String shape;
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private Object dag;
+    private int[] v1s, v2s;
+    private final int[] buffer = new int[64];
+    private int next;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Queries {
+        public long queries;
+    }
+
+    @Setup
+    public void setUp() {
+        dag = Workloads.dag(shape, size, 42);
+        if (indexed)
+            Library.enableAncestorIndex(dag, 1L << 30);
+        v1s = Workloads.vertices(size, QUERIES, 1);
+        v2s = Workloads.vertices(size, QUERIES, 2);
+        Library.lowestCommonAncestors(dag, 0, 0, buffer);  // Build the index outside the measurement.
+    }
+
+    @Benchmark
+    public int lowestCommonAncestors() {
+        int i = next++ & (QUERIES - 1);
+        return Library.lowestCommonAncestors(dag, v1s[i], v2s[i], buffer);
+    }
+
+    @Benchmark
+    public Object lowestCommonAncestorsList() {
+        int i = next++ & (QUERIES - 1);
+        return Library.lowestCommonAncestors(dag, v1s[i], v2s[i]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object batchLowestCommonAncestors(Queries counter) {
+        counter.queries += QUERIES;
+        return Library.lowestCommonAncestors(dag, v1s, v2s);
+    }
+}
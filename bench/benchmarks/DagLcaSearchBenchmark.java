@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lowest common ancestor queries on deep graphs between vertices a short distance apart, so the
+ * answer is a few levels up, with the bidirectional search against marking the whole ancestor
+ * closure of v1 first. Sample mode gives the latency percentiles, and the visited and marked
+ * counters give the average work per query, taken from the graph's metrics during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DagLcaSearchBenchmark {
+    private static final int QUERIES = 1 << 12;   // Pairs cycled through, a power of two.
+
+    @Param({"chain", "lattice", "wide"})
+    public String shape;
+
+    @Param({"100000", "10000000"})
+    public int size;
+
+    @Param({"1", "100"})
+    public int distance;
+
+    @Param({"true", "false"})
+    public boolean bidirectional;
+
+    private Object dag;
+    private int[] v1s, v2s;
+    private final int[] buffer = new int[64];
+    private int next;
+    private double visitedPerQuery, markedPerQuery;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Work {
+        public double visited;      // Vertices queued by the search from v2, per query.
+        public double marked;       // Ancestors of v1 marked, per query.
+    }
+
+    @Setup
+    public void setUp() {
+        dag = Workloads.dag(shape, size, 42);
+        Library.setBidirectionalSearch(dag, bidirectional);
+
+        // Pairs from the deeper half of the graph, v2 up to distance vertices before v1.
+        Random random = new Random(1);
+        v1s = new int[QUERIES];
+        v2s = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            v1s[i] = size / 2 + random.nextInt(size / 2);
+            v2s[i] = v1s[i] - 1 - random.nextInt(distance);
+        }
+
+        Object metrics = Library.measure(dag, true);
+        for (int i = 0; i < QUERIES; i++)
+            Library.lowestCommonAncestors(dag, v1s[i], v2s[i], buffer);
+        long[] work = Library.queryWork(metrics);
+        visitedPerQuery = (double) work[1] / work[0];
+        markedPerQuery = (double) work[2] / work[0];
+        Library.measure(dag, false);
+    }
+
+    @Benchmark
+    public int lowestCommonAncestors(Work work) {
+        work.visited = visitedPerQuery;
+        work.marked = markedPerQuery;
+        int i = next++ & (QUERIES - 1);
+        return Library.lowestCommonAncestors(dag, v1s[i], v2s[i], buffer);
+    }
+}
@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and lowest common ancestor queries on a balanced BinarySearchTree, against the same
+ * keys compiled into an EytzingerTree and an IntEytzingerTree. Queried keys are spread at random
+ * over the whole tree, so large sizes measure cache misses rather than comparisons.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EytzingerBenchmark {
+    private static final int QUERIES = 1 << 16;   // Keys cycled through, a power of two.
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    private Integer[] queries1, queries2;
+    private int[] intQueries1, intQueries2;
+    private Object tree, compiled, compiledInt;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Integer[] keys = Workloads.keys("sorted", size, 42);
+        tree = Library.fromSorted(keys, keys, true);
+        compiled = Library.compile(tree);
+        compiledInt = Library.compileInt(tree);
+        queries1 = Workloads.sample(keys, QUERIES, 1);
+        queries2 = Workloads.sample(keys, QUERIES, 2);
+        intQueries1 = new int[QUERIES];
+        intQueries2 = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            intQueries1[i] = queries1[i];
+            intQueries2[i] = queries2[i];
+        }
+    }
+
+    @Benchmark
+    public Object treeGetValue() {
+        return Library.getValue(tree, queries1[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Object eytzingerGetValue() {
+        return Library.eytzingerGetValue(compiled, queries1[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Object intEytzingerGetValue() {
+        return Library.intEytzingerGetValue(compiledInt, intQueries1[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public Object treeLowestCommonAncestor() {
+        int i = next++ & (QUERIES - 1);
+        return Library.lowestCommonAncestor(tree, queries1[i], queries2[i]);
+    }
+
+    @Benchmark
+    public Object eytzingerLowestCommonAncestor() {
+        int i = next++ & (QUERIES - 1);
+        return Library.eytzingerLowestCommonAncestor(compiled, queries1[i], queries2[i]);
+    }
+
+    @Benchmark
+    public int intEytzingerLowestCommonAncestor() {
+        int i = next++ & (QUERIES - 1);
+        return Library.intEytzingerLowestCommonAncestor(compiledInt, intQueries1[i], intQueries2[i]);
+    }
+}
@@ -0,0 +1,398 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Calls into the library classes, which live in the default package.
+ *
+ * JMH will not generate harness code for benchmarks in the default package, and classes in a
+ * named package cannot refer to ones in the default package, so the benchmarks reach DAG and
+ * BinarySearchTree through method handles. The handles are static final, so the JIT treats them
+ * as constants and inlines the target method as it would a direct call.
+ */
+final class Library {
+    private static final MethodHandle NEW_DAG = constructor("DAG", int.class);
+    private static final MethodHandle DAG_ADD_EDGE = method("DAG", "addEdge", boolean.class, int.class, int.class);
+    private static final MethodHandle DAG_ADD_EDGES = method("DAG", "addEdges", int[].class, int[].class);
+    private static final MethodHandle DAG_FREEZE = method("DAG", "freeze", void.class);
+    private static final MethodHandle DAG_ENABLE_INDEX = method("DAG", "enableAncestorIndex", void.class, long.class);
+    private static final MethodHandle DAG_LCA_INTO = method("DAG", "lowestCommonAncestors", int.class, int.class, int.class, int[].class);
+    private static final MethodHandle DAG_LCA_LIST = method("DAG", "lowestCommonAncestors", java.util.ArrayList.class, int.class, int.class);
+    private static final MethodHandle DAG_LCA_BATCH = method("DAG", "lowestCommonAncestors", type("LcaResults"), int[].class, int[].class);
+    private static final MethodHandle DAG_SET_BIDIRECTIONAL = method("DAG", "setBidirectionalSearch", void.class, boolean.class);
+    private static final MethodHandle DAG_SET_METRICS = method("DAG", "setMetrics", void.class, type("LcaMetrics"));
+    private static final MethodHandle NEW_METRICS = constructor("LcaMetrics");
+    private static final MethodHandle METRICS_QUERIES = method("LcaMetrics", "getQueries", long.class);
+    private static final MethodHandle METRICS_VISITED = method("LcaMetrics", "getVerticesVisited", long.class);
+    private static final MethodHandle METRICS_MARKED = method("LcaMetrics", "getAncestorsMarked", long.class);
+    private static final MethodHandle NEW_SERVER = constructor("LcaServer", InetSocketAddress.class);
+    private static final MethodHandle SERVER_PUBLISH = method("LcaServer", "publish", void.class, type("DAG"));
+    private static final MethodHandle SERVER_PORT = method("LcaServer", "port", int.class);
+    private static final MethodHandle SERVER_CLOSE = method("LcaServer", "close", void.class);
+    private static final MethodHandle DAG_READ_EDGE_LIST = staticMethod("DAG", "readEdgeList", type("DAG"), Path.class);
+    private static final MethodHandle DAG_READ_BINARY_EDGE_LIST = staticMethod("DAG", "readBinaryEdgeList", type("DAG"), Path.class);
+
+    private static final MethodHandle NEW_BST = constructor("BinarySearchTree", boolean.class);
+    private static final MethodHandle BST_INSERT = method("BinarySearchTree", "insert", void.class, Comparable.class, Object.class);
+    private static final MethodHandle BST_GET_VALUE = method("BinarySearchTree", "getValue", Object.class, Comparable.class);
+    private static final MethodHandle BST_LCA = method("BinarySearchTree", "lowestCommonAncestor", Comparable.class, Comparable.class, Comparable.class);
+    private static final MethodHandle BST_FREEZE = method("BinarySearchTree", "freeze", void.class);
+    private static final MethodHandle BST_COMPILE = method("BinarySearchTree", "compile", type("EytzingerTree"));
+    private static final MethodHandle INT_EYTZINGER_COMPILE = staticMethod("IntEytzingerTree", "compile", type("IntEytzingerTree"), type("BinarySearchTree"));
+    private static final MethodHandle EYTZINGER_GET_VALUE = method("EytzingerTree", "getValue", Object.class, Comparable.class);
+    private static final MethodHandle EYTZINGER_LCA = method("EytzingerTree", "lowestCommonAncestor", Comparable.class, Comparable.class, Comparable.class);
+    private static final MethodHandle INT_EYTZINGER_GET_VALUE = method("IntEytzingerTree", "getValue", Object.class, int.class);
+    private static final MethodHandle INT_EYTZINGER_LCA = method("IntEytzingerTree", "lowestCommonAncestor", int.class, int.class, int.class, int.class);
+    private static final MethodHandle BST_FROM_SORTED = staticMethod("BinarySearchTree", "fromSorted", type("BinarySearchTree"),
+            Comparable[].class, Object[].class, boolean.class);
+
+    private static final MethodHandle NEW_CONCURRENT_BST = constructor("ConcurrentBinarySearchTree");
+    private static final MethodHandle CONCURRENT_BST_INSERT = method("ConcurrentBinarySearchTree", "insert", void.class, Comparable.class, Object.class);
+    private static final MethodHandle CONCURRENT_BST_GET_VALUE = method("ConcurrentBinarySearchTree", "getValue", Object.class, Comparable.class);
+    private static final MethodHandle CONCURRENT_BST_LCA = method("ConcurrentBinarySearchTree", "lowestCommonAncestor", Comparable.class, Comparable.class, Comparable.class);
+
+    private Library() {
+    }
+
+    static Object newDag(int vertices) {
+        try {
+            return (Object) NEW_DAG.invokeExact(vertices);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean addEdge(Object dag, int v, int w) {
+        try {
+            return (boolean) DAG_ADD_EDGE.invokeExact(dag, v, w);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int[] addEdges(Object dag, int[] edges) {
+        try {
+            return (int[]) DAG_ADD_EDGES.invokeExact(dag, edges);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void freeze(Object dag) {
+        try {
+            DAG_FREEZE.invokeExact(dag);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void enableAncestorIndex(Object dag, long maxBytes) {
+        try {
+            DAG_ENABLE_INDEX.invokeExact(dag, maxBytes);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void setBidirectionalSearch(Object dag, boolean bidirectional) {
+        try {
+            DAG_SET_BIDIRECTIONAL.invokeExact(dag, bidirectional);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Attach new metrics to a graph, or detach them if measure is false.
+     *
+     * @return The metrics, or null.
+     */
+    static Object measure(Object dag, boolean measure) {
+        try {
+            Object metrics = measure ? (Object) NEW_METRICS.invokeExact() : null;
+            DAG_SET_METRICS.invoke(dag, metrics);     // Casts the metrics; only called in setup.
+            return metrics;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return The queries, vertices visited and ancestors marked recorded in metrics.
+     */
+    static long[] queryWork(Object metrics) {
+        try {
+            return new long[] {(long) METRICS_QUERIES.invokeExact(metrics), (long) METRICS_VISITED.invokeExact(metrics),
+                    (long) METRICS_MARKED.invokeExact(metrics)};
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Start a query server on a free loopback port, serving a snapshot of the graph.
+     *
+     * @return The server.
+     */
+    static Object startServer(Object dag) {
+        try {
+            Object server = (Object) NEW_SERVER.invokeExact(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SERVER_PUBLISH.invoke(server, dag);     // Casts the graph; only called in setup.
+            return server;
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int port(Object server) {
+        try {
+            return (int) SERVER_PORT.invokeExact(server);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void close(Object server) {
+        try {
+            SERVER_CLOSE.invokeExact(server);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int lowestCommonAncestors(Object dag, int v1, int v2, int[] buffer) {
+        try {
+            return (int) DAG_LCA_INTO.invokeExact(dag, v1, v2, buffer);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object lowestCommonAncestors(Object dag, int v1, int v2) {
+        try {
+            return (Object) DAG_LCA_LIST.invokeExact(dag, v1, v2);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object lowestCommonAncestors(Object dag, int[] v1s, int[] v2s) {
+        try {
+            return (Object) DAG_LCA_BATCH.invokeExact(dag, v1s, v2s);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object readEdgeList(Path file) {
+        try {
+            return (Object) DAG_READ_EDGE_LIST.invokeExact(file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object readBinaryEdgeList(Path file) {
+        try {
+            return (Object) DAG_READ_BINARY_EDGE_LIST.invokeExact(file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newBinarySearchTree(boolean balanced) {
+        try {
+            return (Object) NEW_BST.invokeExact(balanced);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object fromSorted(Integer[] keys, Object[] values, boolean balanced) {
+        try {
+            return (Object) BST_FROM_SORTED.invokeExact((Comparable[]) keys, values, balanced);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void insert(Object tree, Integer key, Object value) {
+        try {
+            BST_INSERT.invokeExact(tree, (Comparable) key, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object getValue(Object tree, Integer key) {
+        try {
+            return (Object) BST_GET_VALUE.invokeExact(tree, (Comparable) key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object lowestCommonAncestor(Object tree, Integer key1, Integer key2) {
+        try {
+            return (Object) BST_LCA.invokeExact(tree, (Comparable) key1, (Comparable) key2);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void freezeTree(Object tree) {
+        try {
+            BST_FREEZE.invokeExact(tree);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object compile(Object tree) {
+        try {
+            return (Object) BST_COMPILE.invokeExact(tree);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object compileInt(Object tree) {
+        try {
+            return (Object) INT_EYTZINGER_COMPILE.invoke(tree);     // Casts the tree; only called in setup.
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object eytzingerGetValue(Object tree, Integer key) {
+        try {
+            return (Object) EYTZINGER_GET_VALUE.invokeExact(tree, (Comparable) key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object eytzingerLowestCommonAncestor(Object tree, Integer key1, Integer key2) {
+        try {
+            return (Object) EYTZINGER_LCA.invokeExact(tree, (Comparable) key1, (Comparable) key2);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object intEytzingerGetValue(Object tree, int key) {
+        try {
+            return (Object) INT_EYTZINGER_GET_VALUE.invokeExact(tree, key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int intEytzingerLowestCommonAncestor(Object tree, int key1, int key2) {
+        try {
+            return (int) INT_EYTZINGER_LCA.invokeExact(tree, key1, key2, -1);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newConcurrentBinarySearchTree() {
+        try {
+            return (Object) NEW_CONCURRENT_BST.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void concurrentInsert(Object tree, Integer key, Object value) {
+        try {
+            CONCURRENT_BST_INSERT.invokeExact(tree, (Comparable) key, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object concurrentGetValue(Object tree, Integer key) {
+        try {
+            return (Object) CONCURRENT_BST_GET_VALUE.invokeExact(tree, (Comparable) key);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object concurrentLowestCommonAncestor(Object tree, Integer key1, Integer key2) {
+        try {
+            return (Object) CONCURRENT_BST_LCA.invokeExact(tree, (Comparable) key1, (Comparable) key2);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * A handle to a public constructor, typed to return Object.
+     */
+    private static MethodHandle constructor(String className, Class<?>... parameters) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().findConstructor(type(className),
+                    MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * A handle to a public instance method, typed to take its receiver as Object and to return
+     * Object for any library class.
+     */
+    private static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().findVirtual(type(className), name,
+                    MethodType.methodType(returnType, parameters));
+            return handle.asType(erase(handle.type().changeParameterType(0, Object.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * A handle to a public static method, typed to return Object for any library class.
+     */
+    private static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().findStatic(type(className), name,
+                    MethodType.methodType(returnType, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodType erase(MethodType type) {
+        Class<?> returnType = type.returnType();
+        if (!returnType.isPrimitive() && !returnType.isArray())
+            type = type.changeReturnType(Object.class);
+        return type;
+    }
+
+    private static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new RuntimeException(t);
+    }
+}
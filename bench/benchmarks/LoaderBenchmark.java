@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a random DAG from a text or binary edge-list file with DAG.readEdgeList and
+ * DAG.readBinaryEdgeList. The edges counter reports edges loaded per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LoaderBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"text", "binary"})
+    public String format;
+
+    private Path file;
+    private int edgeCount;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Edges {
+        public long edges;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        int[] edges = Workloads.dagEdges("random", size, 42);
+        edgeCount = edges.length / 2;
+        file = Files.createTempFile("edges", "." + format);
+        if (format.equals("text")) {
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+                for (int i = 0; i < edges.length; i += 2)
+                    writer.write(edges[i] + " " + edges[i + 1] + "\n");
+            }
+        }
+        else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = ByteBuffer.allocate(edges.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+                bytes.asIntBuffer().put(edges);
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object load(Edges counter) {
+        counter.edges += edgeCount;
+        return format.equals("text") ? Library.readEdgeList(file) : Library.readBinaryEdgeList(file);
+    }
+}
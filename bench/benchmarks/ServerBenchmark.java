@@ -0,0 +1,206 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A loopback load generator for LcaServer. Many client connections are driven from one selector
+ * thread: each round, every connection sends its pipelined DAG_LCA requests in one write, and the
+ * round ends when every response is back. The requests counter gives the throughput in requests
+ * per second, and p99Micros the 99th percentile latency, from send to response, over the
+ * iteration so far.
+ *
+ * Each connection and its server side use a file descriptor, so 10^4 connections need
+ * "ulimit -n" well above 2 * 10^4. On Java 21 and later the server runs a virtual thread per
+ * connection, and on older JVMs a platform thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ServerBenchmark {
+    private static final byte DAG_LCA = 1;      // Op of LcaServer.DAG_LCA.
+    private static final int VERTICES = 100000;
+
+    // Latencies are counted in log-linear buckets, 16 per power of two of nanoseconds.
+    private static final int SUB_BUCKETS = 16;
+    private static final int LATENCY_BUCKETS = 64 * SUB_BUCKETS;
+
+    @Param({"1000", "10000"})
+    public int connections;
+
+    @Param({"1", "4"})
+    public int pipeline;
+
+    @Param({"1", "16"})
+    public int batch;
+
+    private Object server;
+    private Selector selector;
+    private SocketChannel[] channels;
+    private ByteBuffer[] requests;      // Each connection's pipelined requests, ready to send.
+    private ByteBuffer[] responses;     // Each connection's responses so far.
+    private int[] pending;              // Responses each connection is still waiting for.
+    private long[] sent;                // When each connection sent its requests.
+    private final long[] latencies = new long[LATENCY_BUCKETS];
+    private long latencyCount;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Requests {
+        public long requests;
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Latency {
+        public double p99Micros;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        server = Library.startServer(Workloads.dag("wide", VERTICES, 42));
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Library.port(server));
+        selector = Selector.open();
+        channels = new SocketChannel[connections];
+        requests = new ByteBuffer[connections];
+        responses = new ByteBuffer[connections];
+        pending = new int[connections];
+        sent = new long[connections];
+
+        Random random = new Random(1);
+        for (int c = 0; c < connections; c++) {
+            try {
+                channels[c] = SocketChannel.open(address);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open connection " + c + "; raise ulimit -n.", e);
+            }
+            channels[c].setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channels[c].configureBlocking(false);
+            channels[c].register(selector, SelectionKey.OP_READ, c);
+
+            // Pairs from the deeper half of the graph, close together.
+            ByteBuffer request = ByteBuffer.allocate(pipeline * (13 + 8 * batch));
+            for (int p = 0; p < pipeline; p++) {
+                request.putInt(9 + 8 * batch).putInt(p).put(DAG_LCA).putInt(batch);
+                for (int i = 0; i < batch; i++) {
+                    int v1 = VERTICES / 2 + random.nextInt(VERTICES / 2);
+                    request.putInt(v1).putInt(v1 - 1 - random.nextInt(100));
+                }
+            }
+            requests[c] = request;
+            responses[c] = ByteBuffer.allocate(1 << 12);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetLatencies() {
+        Arrays.fill(latencies, 0);
+        latencyCount = 0;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (SocketChannel channel : channels) {
+            if (channel != null)
+                channel.close();
+        }
+        selector.close();
+        Library.close(server);
+    }
+
+    @Benchmark
+    public long round(Requests counter, Latency latency) throws IOException {
+        for (int c = 0; c < connections; c++) {
+            ByteBuffer request = requests[c];
+            request.clear();
+            sent[c] = System.nanoTime();
+            while (request.hasRemaining())
+                channels[c].write(request);     // Small enough to fit the socket buffer.
+            pending[c] = pipeline;
+        }
+
+        int waiting = connections;
+        while (waiting > 0) {
+            selector.select();
+            for (SelectionKey key : selector.selectedKeys()) {
+                int c = (Integer) key.attachment();
+                if (pending[c] > 0 && receive(c))
+                    waiting--;
+            }
+            selector.selectedKeys().clear();
+        }
+
+        counter.requests += (long) connections * pipeline;
+        latency.p99Micros = percentile(0.99) / 1000.0;
+        return latencyCount;
+    }
+
+    /**
+     * Read what has arrived for a connection, recording the latency of each complete response.
+     *
+     * @return Whether or not all of its responses are now in.
+     */
+    private boolean receive(int c) throws IOException {
+        ByteBuffer response = responses[c];
+        if (channels[c].read(response) < 0)
+            throw new IOException("Server closed connection " + c + ".");
+        response.flip();
+        while (response.remaining() >= 4 && response.remaining() >= 4 + response.getInt(response.position())) {
+            response.position(response.position() + 4 + response.getInt(response.position()));
+            record(System.nanoTime() - sent[c]);
+            pending[c]--;
+        }
+        response.compact();
+        return pending[c] == 0;
+    }
+
+    private void record(long nanos) {
+        int exponent = 63 - Long.numberOfLeadingZeros(Math.max(nanos, SUB_BUCKETS));
+        int sub = (int) (nanos >>> (exponent - 4)) & (SUB_BUCKETS - 1);
+        latencies[exponent * SUB_BUCKETS + sub]++;
+        latencyCount++;
+    }
+
+    /**
+     * @return The latency below which the given fraction of responses arrived, in nanoseconds,
+     *         rounded up to the top of its bucket.
+     */
+    private long percentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * latencyCount), seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += latencies[i];
+            if (seen >= rank && seen > 0) {
+                int exponent = i / SUB_BUCKETS, sub = i % SUB_BUCKETS;
+                return (long) (SUB_BUCKETS + sub + 1) << (exponent - 4);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,174 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic graphs and key sets shared by the benchmarks. Every workload is seeded, so each run
+ * measures the same data.
+ */
+final class Workloads {
+    private Workloads() {
+    }
+
+    /**
+     * The edges of a synthetic DAG, as origin/destination pairs for DAG.addEdges.
+     *
+     * random - About two distinct edges per vertex between random vertices, oriented along a
+     *          random permutation and added in random order, so edges arrive against the initial
+     *          order and force reordering.
+     * chain - A single path 0->1->...->n-1, the deepest possible graph.
+     * lattice - A square grid with edges right and down, where ancestor sets overlap heavily.
+     * wide - Layers of about sqrt(n) vertices, each vertex merging two vertices of the layer above.
+     *
+     * @param shape - One of the shapes above.
+     * @param vertices - The number of vertices.
+     * @param seed - Seed for the random shapes.
+     * @return The edges.
+     */
+    static int[] dagEdges(String shape, int vertices, long seed) {
+        Random random = new Random(seed);
+        switch (shape) {
+            case "random": {
+                // Pick pairs, drop repeats, then shuffle them back into a random arrival order.
+                long[] pairs = new long[vertices * 2];
+                for (int i = 0; i < pairs.length; i++) {
+                    int a = random.nextInt(vertices), b = random.nextInt(vertices);
+                    while (a == b)
+                        b = random.nextInt(vertices);
+                    pairs[i] = (long) Math.min(a, b) << 32 | Math.max(a, b);
+                }
+                Arrays.sort(pairs);
+                int unique = 0;
+                for (int i = 0; i < pairs.length; i++) {
+                    if (i == 0 || pairs[i] != pairs[i - 1])
+                        pairs[unique++] = pairs[i];
+                }
+                int[] arrival = permutation(unique, random);
+                int[] rank = permutation(vertices, random);
+                int[] edges = new int[unique * 2];
+                for (int i = 0; i < unique; i++) {
+                    long pair = pairs[arrival[i]];
+                    edges[2 * i] = rank[(int) (pair >>> 32)];
+                    edges[2 * i + 1] = rank[(int) pair];
+                }
+                return edges;
+            }
+            case "chain": {
+                int[] edges = new int[(vertices - 1) * 2];
+                for (int v = 0; v + 1 < vertices; v++) {
+                    edges[2 * v] = v;
+                    edges[2 * v + 1] = v + 1;
+                }
+                return edges;
+            }
+            case "lattice": {
+                int side = (int) Math.sqrt(vertices);
+                int[] edges = new int[side * (side - 1) * 4];
+                int count = 0;
+                for (int row = 0; row < side; row++) {
+                    for (int column = 0; column < side; column++) {
+                        int v = row * side + column;
+                        if (column + 1 < side) {
+                            edges[count++] = v;
+                            edges[count++] = v + 1;
+                        }
+                        if (row + 1 < side) {
+                            edges[count++] = v;
+                            edges[count++] = v + side;
+                        }
+                    }
+                }
+                return edges;
+            }
+            case "wide": {
+                int width = Math.max(2, (int) Math.sqrt(vertices));
+                int[] edges = new int[Math.max(0, vertices - width) * 4];
+                int count = 0;
+                for (int v = width; v < vertices; v++) {
+                    int layerStart = v - v % width - width;
+                    edges[count++] = layerStart + random.nextInt(width);
+                    edges[count++] = v;
+                    edges[count++] = layerStart + random.nextInt(width);
+                    edges[count++] = v;
+                }
+                return edges;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown DAG shape: " + shape);
+        }
+    }
+
+    /**
+     * Build a DAG from a workload with DAG.addEdges.
+     *
+     * @return The graph, frozen.
+     */
+    static Object dag(String shape, int vertices, long seed) {
+        Object dag = Library.newDag(vertices);
+        Library.addEdges(dag, dagEdges(shape, vertices, seed));
+        Library.freeze(dag);
+        return dag;
+    }
+
+    /**
+     * @return count random vertices below vertices.
+     */
+    static int[] vertices(int vertices, int count, long seed) {
+        Random random = new Random(seed);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++)
+            result[i] = random.nextInt(vertices);
+        return result;
+    }
+
+    /**
+     * Keys 0 to size - 1, boxed once up front so that benchmarks do not measure boxing.
+     *
+     * @param order - "sorted" for ascending keys, or "random" for a random permutation.
+     * @return The keys.
+     */
+    static Integer[] keys(String order, int size, long seed) {
+        int[] values;
+        if (order.equals("sorted")) {
+            values = new int[size];
+            for (int i = 0; i < size; i++)
+                values[i] = i;
+        }
+        else if (order.equals("random"))
+            values = permutation(size, new Random(seed));
+        else throw new IllegalArgumentException("Unknown key order: " + order);
+
+        Integer[] keys = new Integer[size];
+        for (int i = 0; i < size; i++)
+            keys[i] = values[i];
+        return keys;
+    }
+
+    /**
+     * @return count keys picked at random from keys.
+     */
+    static Integer[] sample(Integer[] keys, int count, long seed) {
+        Random random = new Random(seed);
+        Integer[] sample = new Integer[count];
+        for (int i = 0; i < count; i++)
+            sample[i] = keys[random.nextInt(keys.length)];
+        return sample;
+    }
+
+    /**
+     * @return A random permutation of 0 to size - 1.
+     */
+    private static int[] permutation(int size, Random random) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++)
+            values[i] = i;
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+        return values;
+    }
+}
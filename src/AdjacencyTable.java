@@ -0,0 +1,235 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Adjacency lists for the vertices 0..n-1 of a graph, stored as primitive ints.
+ *
+ * While the graph is being built, each vertex has its own growable int array.
+ * Freezing packs every list into a single compressed sparse row (CSR) layout,
+ * where the neighbours of v are targets[offsets[v]] to targets[offsets[v + 1] - 1].
+ * The CSR arrays are held as IntBuffers, so a frozen table can also sit directly on a
+ * memory-mapped file.
+ * Adding to a frozen table unpacks it again, into new arrays, so the CSR arrays of a frozen
+ * table are never modified and can be shared between copies.
+ */
+class AdjacencyTable {
+    private static final int[] EMPTY = new int[0];
+
+    private int[][] lists;      // Growable list for each vertex, with room for more vertices. Null while frozen.
+    private int[] sizes;        // Number of entries used in each growable list.
+
+    private IntBuffer offsets;  // CSR offsets, one per vertex plus one. Null unless frozen.
+    private IntBuffer targets;  // CSR neighbours of all vertices, back to back.
+
+    private int vertices;
+
+    /**
+     * Constructor.
+     * @param v - Number of vertices.
+     */
+    AdjacencyTable(int v) {
+        vertices = v;
+        lists = new int[v][];
+        Arrays.fill(lists, EMPTY);
+        sizes = new int[v];
+    }
+
+    /**
+     * Constructor for a frozen table over existing CSR arrays.
+     *
+     * @param offsets - CSR offsets, one per vertex plus one.
+     * @param targets - CSR neighbours of all vertices. Must not be changed afterwards.
+     */
+    AdjacencyTable(IntBuffer offsets, IntBuffer targets) {
+        vertices = offsets.limit() - 1;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Freeze the table and return a frozen copy of it, sharing its CSR arrays.
+     * Later changes to either table do not affect the other.
+     *
+     * @return The frozen copy.
+     */
+    AdjacencyTable frozenCopy() {
+        freeze();
+        return new AdjacencyTable(offsets, targets);
+    }
+
+    /**
+     * @return The number of vertices in the table.
+     */
+    int vertices() {
+        return vertices;
+    }
+
+    /**
+     * @param v - The vertex.
+     * @return The number of neighbours of v.
+     */
+    int degree(int v) {
+        if (offsets != null)
+            return offsets.get(v + 1) - offsets.get(v);
+        return sizes[v];
+    }
+
+    /**
+     * @param v - The vertex.
+     * @param i - Index into the neighbours of v, in the order they were added.
+     * @return The i-th neighbour of v.
+     */
+    int get(int v, int i) {
+        if (offsets != null)
+            return targets.get(offsets.get(v) + i);
+        return lists[v][i];
+    }
+
+    /**
+     * Append w to the neighbours of v. Duplicates are not checked for here.
+     *
+     * @param v - The vertex whose list is appended to.
+     * @param w - The new neighbour.
+     */
+    void add(int v, int w) {
+        if (offsets != null)
+            thaw();
+
+        int[] list = lists[v];
+        int size = sizes[v];
+        if (size == list.length)
+            lists[v] = list = Arrays.copyOf(list, Math.max(4, size * 2));
+        list[size] = w;
+        sizes[v] = size + 1;
+    }
+
+    /**
+     * Insert w into the neighbours of v, keeping them in ascending order. Entries larger than w
+     * are shifted up, so inserting in ascending order takes constant time. Duplicates are not
+     * checked for here.
+     *
+     * @param v - The vertex whose list is inserted into.
+     * @param w - The new neighbour.
+     */
+    void addSorted(int v, int w) {
+        if (offsets != null)
+            thaw();
+
+        int[] list = lists[v];
+        int size = sizes[v];
+        if (size == list.length)
+            lists[v] = list = Arrays.copyOf(list, Math.max(4, size * 2));
+        int i = size;
+        for (; i > 0 && list[i - 1] > w; i--)
+            list[i] = list[i - 1];
+        list[i] = w;
+        sizes[v] = size + 1;
+    }
+
+    /**
+     * Add vertices with no neighbours, up to v in total. Existing lists stay where they are.
+     * Room for vertices doubles as it runs out, so growing one vertex at a time takes amortised
+     * constant time. A frozen table is unpacked first, as by add().
+     *
+     * @param v - The number of vertices wanted.
+     */
+    void grow(int v) {
+        if (v <= vertices)
+            return;
+        if (offsets != null)
+            thaw();
+
+        if (v > lists.length) {
+            int capacity = (int) Math.max(v, Math.min((long) lists.length * 2, Integer.MAX_VALUE - 8));
+            lists = Arrays.copyOf(lists, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        Arrays.fill(lists, vertices, v, EMPTY);
+        vertices = v;
+    }
+
+    /**
+     * @return The total number of entries over all lists.
+     */
+    long size() {
+        if (offsets != null)
+            return targets.limit();
+        long size = 0;
+        for (int s : sizes)
+            size += s;
+        return size;
+    }
+
+    /**
+     * @return Whether or not the table is packed into the CSR layout.
+     */
+    boolean isFrozen() {
+        return offsets != null;
+    }
+
+    /**
+     * @return The CSR offsets, positioned at the start. The table must be frozen.
+     */
+    IntBuffer offsets() {
+        return offsets.duplicate();
+    }
+
+    /**
+     * @return The CSR neighbours, positioned at the start. The table must be frozen.
+     */
+    IntBuffer targets() {
+        return targets.duplicate();
+    }
+
+    /**
+     * Pack all lists into the CSR layout and release the growable lists.
+     */
+    void freeze() {
+        if (offsets != null)
+            return;
+
+        long total = size();
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many edges to freeze: " + total);
+
+        int[] packedOffsets = new int[vertices + 1];
+        int[] packedTargets = new int[(int) total];
+        int next = 0;
+        for (int v = 0; v < vertices; v++) {
+            packedOffsets[v] = next;
+            System.arraycopy(lists[v], 0, packedTargets, next, sizes[v]);
+            next += sizes[v];
+        }
+        packedOffsets[vertices] = next;
+
+        offsets = IntBuffer.wrap(packedOffsets);
+        targets = IntBuffer.wrap(packedTargets);
+        lists = null;
+        sizes = null;
+    }
+
+    /**
+     * Unpack the CSR layout back into one growable list per vertex.
+     */
+    private void thaw() {
+        int[][] unpacked = new int[vertices][];
+        int[] unpackedSizes = new int[vertices];
+        for (int v = 0; v < vertices; v++) {
+            int from = offsets.get(v);
+            int size = offsets.get(v + 1) - from;
+            unpacked[v] = EMPTY;
+            if (size > 0) {
+                unpacked[v] = new int[size];
+                IntBuffer list = targets.duplicate();
+                list.position(from);
+                list.get(unpacked[v]);
+            }
+            unpackedSizes[v] = size;
+        }
+
+        lists = unpacked;
+        sizes = unpackedSizes;
+        offsets = null;
+        targets = null;
+    }
+}
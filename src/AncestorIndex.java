@@ -0,0 +1,138 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Precomputed ancestor sets for the vertices of a DAG, answering "is u an ancestor of v" in O(1).
+ *
+ * Vertices are numbered by their position in a topological order, so every ancestor of v has a
+ * lower position than v. The ancestors of v (including v itself) are stored as a bitset over
+ * positions, trimmed to the words between its earliest ancestor and v. The set of v is the union
+ * of the sets of its parents, so the index is built in one pass over the order.
+ *
+ * Building stops when the memory budget runs out. Vertices are indexed in topological order, so
+ * the indexed vertices always form a prefix of the order, and unindexed vertices are reported
+ * as such rather than answered wrongly.
+ *
+ * The index is held in buffers, so that it can also be read straight from a memory-mapped file.
+ */
+class AncestorIndex {
+    private final IntBuffer order;      // Position of each vertex in the topological order used.
+    private final IntBuffer start;      // Offset of each vertex's bitset in words. -1 if not indexed.
+    private final IntBuffer firstWord;  // Word number, over all positions, of each bitset's first word.
+    private final LongBuffer words;     // All bitsets, back to back.
+
+    /**
+     * Build the index.
+     *
+     * @param parentTable - The parents of each vertex.
+     * @param order - The position of each vertex in a topological order. Copied.
+     * @param vertexAt - The vertex at each position of that order.
+     * @param maxBytes - The most memory the bitsets may take.
+     */
+    AncestorIndex(AdjacencyTable parentTable, int[] order, int[] vertexAt, long maxBytes) {
+        int vertices = parentTable.vertices();
+        int[] start = new int[vertices];
+        int[] firstWord = new int[vertices];
+        Arrays.fill(start, -1);
+
+        long maxWords = Math.min(maxBytes / 8, Integer.MAX_VALUE - 8);
+        long[] bits = new long[(int) Math.min(maxWords, Math.max(16, vertices))];
+        int used = 0;
+        for (int position = 0; position < vertices; position++) {
+            int v = vertexAt[position];
+
+            // The words needed run from the earliest word of any parent's set to v's own word.
+            int first = position >>> 6;
+            for (int i = 0; i < parentTable.degree(v); i++)
+                first = Math.min(first, firstWord[parentTable.get(v, i)]);
+            int length = (position >>> 6) - first + 1;
+            if (used + (long) length > maxWords)
+                break;  // Out of budget: this and all later vertices stay unindexed.
+            if (used + length > bits.length)
+                bits = Arrays.copyOf(bits, (int) Math.min(maxWords, Math.max(used + length, (long) bits.length * 2)));
+
+            start[v] = used;
+            firstWord[v] = first;
+            for (int i = 0; i < parentTable.degree(v); i++) {
+                int parent = parentTable.get(v, i);
+                int parentLength = (order[parent] >>> 6) - firstWord[parent] + 1;
+                for (int word = 0; word < parentLength; word++)
+                    bits[used + firstWord[parent] - first + word] |= bits[start[parent] + word];
+            }
+            bits[used + length - 1] |= 1L << position;
+            used += length;
+        }
+
+        this.order = IntBuffer.wrap(Arrays.copyOf(order, vertices));
+        this.start = IntBuffer.wrap(start);
+        this.firstWord = IntBuffer.wrap(firstWord);
+        words = LongBuffer.wrap(Arrays.copyOf(bits, used));
+    }
+
+    /**
+     * Constructor for an index that was built before, such as one read from a file.
+     */
+    AncestorIndex(IntBuffer order, IntBuffer start, IntBuffer firstWord, LongBuffer words) {
+        this.order = order;
+        this.start = start;
+        this.firstWord = firstWord;
+        this.words = words;
+    }
+
+    /**
+     * @param v - A vertex.
+     * @return Whether or not the ancestors of v are in the index.
+     */
+    boolean covers(int v) {
+        return start.get(v) >= 0;
+    }
+
+    /**
+     * @param u - The possible ancestor.
+     * @param v - An indexed vertex.
+     * @return Whether or not u is v or an ancestor of v.
+     */
+    boolean isAncestor(int u, int v) {
+        int position = order.get(u);
+        int word = (position >>> 6) - firstWord.get(v);
+        if (word < 0 || position > order.get(v))
+            return false;
+        return (words.get(start.get(v) + word) & (1L << position)) != 0;
+    }
+
+    /**
+     * @return The memory taken by the bitsets, in bytes.
+     */
+    long bytes() {
+        return words.limit() * 8L;
+    }
+
+    /**
+     * @return The topological position of each vertex, positioned at the start.
+     */
+    IntBuffer order() {
+        return order.duplicate();
+    }
+
+    /**
+     * @return The offset of each vertex's bitset, positioned at the start.
+     */
+    IntBuffer start() {
+        return start.duplicate();
+    }
+
+    /**
+     * @return The first word number of each vertex's bitset, positioned at the start.
+     */
+    IntBuffer firstWord() {
+        return firstWord.duplicate();
+    }
+
+    /**
+     * @return All bitsets, positioned at the start.
+     */
+    LongBuffer words() {
+        return words.duplicate();
+    }
+}
@@ -1,5 +1,16 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
 public class BinarySearchTree<Key extends Comparable<Key>, Value> {
     private Node root;
+    private EulerTour eulerTour;    //Constant time LCA structure while the tree is frozen. Null otherwise.
+    private final boolean balanced; //Whether or not inserts keep the tree balanced.
+    private volatile LcaMetrics metrics;    //Where queries are recorded. Null if not measured.
+    private volatile LcaCache queryCache;   //Results of recent queries. Null if not cached.
+    private long version;                   //Number of inserts, to tag cached results with.
 
     private class Node {
         private Node left, right;   //Left and right children of this node. Null if empty.
@@ -7,6 +18,9 @@ public class BinarySearchTree<Key extends Comparable<Key>, Value> {
         private Key key;        //Unique key of the node.
         private Value value;    //May have same value as other nodes.
 
+        private int eulerIndex; //First position of the node in the Euler tour, while frozen.
+        private boolean red;    //Colour of the link from the parent, in a balanced tree.
+
         /**
          * Constructor.
          * @param key - Unique key of the node.
@@ -18,6 +32,200 @@ public class BinarySearchTree<Key extends Comparable<Key>, Value> {
         }
     }
 
+    /**
+     * Constructor for a plain, unbalanced BST.
+     */
+    public BinarySearchTree() {
+        this(false);
+    }
+
+    /**
+     * Constructor.
+     * A balanced tree is kept as a left-leaning red-black tree, so its depth is at most 2 log n
+     * whatever order keys are inserted in. An unbalanced tree keeps the shape given by the
+     * insertion order, and degrades into a list when keys are inserted in sorted order.
+     *
+     * @param balanced - Whether or not inserts should keep the tree balanced.
+     */
+    public BinarySearchTree(boolean balanced) {
+        this.balanced = balanced;
+    }
+
+    /**
+     * Build a tree from keys that are already sorted, in linear time and without comparing keys.
+     * A plain tree has the minimum height for its size. A balanced tree is a valid left-leaning
+     * red-black tree at most one level taller, so later inserts keep it balanced.
+     *
+     * @param keys     - The keys, in strictly ascending order. The order is not checked.
+     * @param values   - The value of each key.
+     * @param balanced - Whether or not later inserts should keep the tree balanced.
+     * @return           The tree.
+     */
+    public static <Key extends Comparable<Key>, Value> BinarySearchTree<Key, Value> fromSorted(Key[] keys, Value[] values, boolean balanced) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Key and value arrays must have the same length.");
+        }
+
+        BinarySearchTree<Key, Value> tree = new BinarySearchTree<Key, Value>(balanced);
+        ArrayList<BinarySearchTree<Key, Value>.Node> nodes = new ArrayList<BinarySearchTree<Key, Value>.Node>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            nodes.add(tree.newNode(keys[i], values[i]));
+        }
+        tree.root = tree.link(nodes);
+        return tree;
+    }
+
+    /**
+     * Build a tree from entries that are already sorted by key, as by fromSorted(Key[], Value[], boolean).
+     *
+     * @param entries  - The entries, in strictly ascending order of key, such as from a TreeMap.
+     * @param balanced - Whether or not later inserts should keep the tree balanced.
+     * @return           The tree.
+     */
+    public static <Key extends Comparable<Key>, Value> BinarySearchTree<Key, Value> fromSorted(
+            Iterator<? extends Map.Entry<? extends Key, ? extends Value>> entries, boolean balanced) {
+        BinarySearchTree<Key, Value> tree = new BinarySearchTree<Key, Value>(balanced);
+        ArrayList<BinarySearchTree<Key, Value>.Node> nodes = new ArrayList<BinarySearchTree<Key, Value>.Node>();
+        while (entries.hasNext()) {
+            Map.Entry<? extends Key, ? extends Value> entry = entries.next();
+            nodes.add(tree.newNode(entry.getKey(), entry.getValue()));
+        }
+        tree.root = tree.link(nodes);
+        return tree;
+    }
+
+    /**
+     * Insert a sorted batch of keys all at once. Keys already in the tree take the new value.
+     * The batch is merged with the keys of the tree in one pass, and the tree is rebuilt with the
+     * same shape as fromSorted() would give, reusing its nodes. This takes linear time in the size of the tree and batch
+     * together, so it beats calling insert once per key when the batch is not small next to the tree.
+     *
+     * The whole batch is checked before the tree is changed, so a bad batch leaves it as it was.
+     *
+     * @param keys   - The keys, in strictly ascending order.
+     * @param values - The value of each key.
+     */
+    public void mergeSorted(Key[] keys, Value[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Key and value arrays must have the same length.");
+        }
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] == null || values[j] == null) {
+                throw new IllegalArgumentException("Keys and values must not be null.");
+            }
+            if (j > 0 && keys[j - 1].compareTo(keys[j]) >= 0) {
+                throw new IllegalArgumentException("Keys must be in strictly ascending order.");
+            }
+        }
+
+        ArrayList<Node> existing = inOrder();
+        ArrayList<Node> merged = new ArrayList<Node>(existing.size() + keys.length);
+        int i = 0, j = 0;
+        while (i < existing.size() || j < keys.length) {
+            if (j == keys.length) {
+                merged.add(existing.get(i++));
+                continue;
+            }
+            int cmp = i == existing.size() ? 1 : existing.get(i).key.compareTo(keys[j]);
+            if (cmp < 0) {
+                merged.add(existing.get(i++));
+            }
+            else if (cmp > 0) {
+                merged.add(new Node(keys[j], values[j++]));
+            }
+            else {
+                Node node = existing.get(i++);
+                node.value = values[j++];
+                merged.add(node);
+            }
+        }
+
+        eulerTour = null;   //The tree is no longer frozen.
+        version++;          //Cached results from before may no longer be valid.
+        root = link(merged);
+    }
+
+    /**
+     * @return A new node for a bulk build. Neither the key nor the value may be null.
+     */
+    private Node newNode(Key key, Value value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Keys and values must not be null.");
+        }
+        return new Node(key, value);
+    }
+
+    /**
+     * Link nodes that are in key order into a tree of (nearly) minimum height, and return its root.
+     * Takes linear time and compares no keys. Recursion only goes as deep as the tree.
+     */
+    private Node link(ArrayList<Node> nodes) {
+        if (!balanced) {
+            return linkPlain(nodes, 0, nodes.size());
+        }
+
+        //The black height of the tree: each black level can hold between 2 and 3 times as many keys as the one above.
+        int blackHeight = 31 - Integer.numberOfLeadingZeros(nodes.size() + 1);
+        long[] maxSize = new long[blackHeight + 1];     //Most keys a subtree of each black height holds, 3^h - 1.
+        long power = 1;
+        for (int h = 0; h <= blackHeight; h++) {
+            maxSize[h] = power - 1;
+            power *= 3;
+        }
+        return linkBalanced(nodes, 0, nodes.size(), blackHeight, maxSize);
+    }
+
+    /**
+     * Link nodes[from, to) into a perfectly balanced tree, each subtree rooted at its middle node.
+     */
+    private Node linkPlain(ArrayList<Node> nodes, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        Node node = nodes.get(middle);
+        node.red = false;
+        node.left = linkPlain(nodes, from, middle);
+        node.right = linkPlain(nodes, middle + 1, to);
+        return node;
+    }
+
+    /**
+     * Link nodes[from, to) into a left-leaning red-black tree with the given black height, by
+     * building it as a 2-3 tree. A subtree of black height h holds between 2^h - 1 and 3^h - 1 keys.
+     * Its root is a 2-node if the rest fits into two subtrees one black level down, and otherwise
+     * a 3-node: a black node with a red left child, over three subtrees. Keys are shared out
+     * evenly between the subtrees, so each one is within its own bounds.
+     */
+    private Node linkBalanced(ArrayList<Node> nodes, int from, int to, int blackHeight, long[] maxSize) {
+        int size = to - from;
+        if (size == 0) {
+            return null;
+        }
+
+        if (size - 1 <= 2 * maxSize[blackHeight - 1]) {
+            int leftSize = (size - 1) / 2;
+            Node node = nodes.get(from + leftSize);
+            node.red = false;
+            node.left = linkBalanced(nodes, from, from + leftSize, blackHeight - 1, maxSize);
+            node.right = linkBalanced(nodes, from + leftSize + 1, to, blackHeight - 1, maxSize);
+            return node;
+        }
+
+        int rest = size - 2;
+        int leftSize = rest / 3;
+        int middleSize = (rest - leftSize) / 2;
+        Node red = nodes.get(from + leftSize);
+        Node black = nodes.get(from + leftSize + 1 + middleSize);
+        red.red = true;
+        red.left = linkBalanced(nodes, from, from + leftSize, blackHeight - 1, maxSize);
+        red.right = linkBalanced(nodes, from + leftSize + 1, from + leftSize + 1 + middleSize, blackHeight - 1, maxSize);
+        black.red = false;
+        black.left = red;
+        black.right = linkBalanced(nodes, from + leftSize + middleSize + 2, to, blackHeight - 1, maxSize);
+        return black;
+    }
+
     /**
      * Insert a new node into the BST. If key exists, replace with new value.
      * Should not insert a new node with a null key.
@@ -27,12 +235,21 @@ public class BinarySearchTree<Key extends Comparable<Key>, Value> {
      */
     public void insert(Key key, Value value) {
         if (key != null && value != null) {
-            root = insert(root, key, value);
+            eulerTour = null;   //The tree is no longer frozen.
+            version++;          //Cached results from before may no longer be valid.
+            if (balanced) {
+                root = insertBalanced(root, key, value);
+                root.red = false;   //The root is always black.
+            }
+            else {
+                root = insert(root, key, value);
+            }
         }
     }
 
     /**
      * Insert a new node into the BST below the passed node.
+     * Walks down iteratively, so inserting into a deep tree does not overflow the stack.
      *
      * @param node  - The node below which the new node will be instered.
      * @param key   - The key of the new node.
@@ -45,19 +262,131 @@ public class BinarySearchTree<Key extends Comparable<Key>, Value> {
             return new Node(key, value);
         }
 
-        //Decide where to place the new node in relation to the current node.
+        Node current = node;
+        while (true) {
+            //Decide where to place the new node in relation to the current node.
+            int cmp = key.compareTo(current.key);
+            if (cmp < 0) {
+                if (current.left == null) {
+                    current.left = new Node(key, value);
+                    return node;
+                }
+                current = current.left;
+            }
+            else if (cmp > 0) {
+                if (current.right == null) {
+                    current.right = new Node(key, value);
+                    return node;
+                }
+                current = current.right;
+            }
+            else {
+                current.value = value;   //Update value of node to new value.
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Insert a new node below the passed node, restoring the left-leaning red-black invariants on
+     * the way back up: no right-leaning red links, and no two red links in a row.
+     * New nodes are attached with a red link.
+     *
+     * @param node  - The node below which the new node will be inserted.
+     * @param key   - The key of the new node.
+     * @param value - The value of the new node.
+     * @return        The node containing the new subtree.
+     */
+    private Node insertBalanced(Node node, Key key, Value value) {
+        if (node == null) {
+            Node inserted = new Node(key, value);
+            inserted.red = true;
+            return inserted;
+        }
+
         int cmp = key.compareTo(node.key);
         if (cmp < 0) {
-            node.left = insert(node.left, key, value);
+            node.left = insertBalanced(node.left, key, value);
         }
         else if (cmp > 0) {
-            node.right = insert(node.right, key, value);
+            node.right = insertBalanced(node.right, key, value);
         }
         else {
-            node.value = value;   //Update value of node to new value.
+            node.value = value;
+        }
+
+        if (isRed(node.right) && !isRed(node.left)) {
+            node = rotateLeft(node);
         }
+        if (isRed(node.left) && isRed(node.left.left)) {
+            node = rotateRight(node);
+        }
+        if (isRed(node.left) && isRed(node.right)) {
+            flipColours(node);
+        }
+        return node;
+    }
 
-        return node;    //Update all affected nodes with new subtrees.
+    private boolean isRed(Node node) {
+        return node != null && node.red;
+    }
+
+    /**
+     * Make a right-leaning red link lean left.
+     */
+    private Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        right.red = node.red;
+        node.red = true;
+        return right;
+    }
+
+    /**
+     * Make a left-leaning red link lean right.
+     */
+    private Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        left.red = node.red;
+        node.red = true;
+        return left;
+    }
+
+    /**
+     * Split a temporary 4-node by passing its middle key's red link up to the parent.
+     */
+    private void flipColours(Node node) {
+        node.red = !node.red;
+        node.left.red = !node.left.red;
+        node.right.red = !node.right.red;
+    }
+
+    /**
+     * @return The number of links on the longest path from the root to a leaf. -1 if empty.
+     */
+    int height() {
+        int height = -1;
+        ArrayList<Node> level = new ArrayList<Node>();
+        if (root != null) {
+            level.add(root);
+        }
+        while (!level.isEmpty()) {
+            height++;
+            ArrayList<Node> next = new ArrayList<Node>();
+            for (Node node : level) {
+                if (node.left != null) {
+                    next.add(node.left);
+                }
+                if (node.right != null) {
+                    next.add(node.right);
+                }
+            }
+            level = next;
+        }
+        return height;
     }
 
     /**
@@ -99,25 +428,26 @@ public class BinarySearchTree<Key extends Comparable<Key>, Value> {
      */
     private Node getNode(Node node, Key key) {
         //If key does not exist in BST return null.
-        if (node == null || key == null) {
+        if (key == null) {
             return null;
         }
 
-        //Decide which subtree to check next for key.
-        int cmp = key.compareTo(node.key);
-
         //If cmp < 0, go left.
         //If cmp > 0, go right.
         //If cmp == 0, return node.
-        if (cmp < 0) {
-            return getNode(node.left, key);
-        }
-        else if (cmp > 0) {
-            return getNode(node.right, key);
-        }
-        else {
-            return node;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            }
+            else if (cmp > 0) {
+                node = node.right;
+            }
+            else {
+                return node;
+            }
         }
+        return null;
     }
 
     /**
@@ -132,69 +462,542 @@ public class BinarySearchTree<Key extends Comparable<Key>, Value> {
     /**
      * Return the key of the lowest parent that two nodes have in common.
      * Works by branching left or right until both nodes are on opposite sides of a subtree,
-     * or until one of the nodes is reached.
+     * or until one of the nodes is reached. Both keys are then looked for below that node,
+     * so each path is only walked once.
      *
      * @param key1 - The key of the first node.
      * @param key2 - The key of the second node.
      * @return       The lowest common ancestor. Null if passes keys are invalid.
      */
     public Key lowestCommonAncestor(Key key1, Key key2) {
-        if (!(contains(key1) && contains(key2))) {
-            return null;    //If both keys are not in BST.
+        LcaMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return cachedLowestCommonAncestor(key1, key2);
+        }
+
+        long start = System.nanoTime();
+        Key ancestor = cachedLowestCommonAncestor(key1, key2);
+        metrics.recordQuery(System.nanoTime() - start, 0, 0, 0);
+        return ancestor;
+    }
+
+    /**
+     * Look the pair up in the query cache, if there is one, before searching the tree.
+     * The lowest common ancestor does not depend on the order of the keys, so both orders share
+     * an entry, keyed on the hash codes of the keys in ascending order.
+     */
+    @SuppressWarnings("unchecked")
+    private Key cachedLowestCommonAncestor(Key key1, Key key2) {
+        LcaCache cache = queryCache;
+        if (cache == null || key1 == null || key2 == null) {
+            return findLowestCommonAncestor(key1, key2);
         }
 
-        if (key1.equals(key2)) {
-            return key1;
+        if (key1.compareTo(key2) > 0) {
+            Key swap = key1;
+            key1 = key2;
+            key2 = swap;
+        }
+        long packed = ((long) key1.hashCode() << 32) | (key2.hashCode() & 0xffffffffL);
+        Object cached = cache.get(packed, key1, key2, version);
+        if (cached != LcaCache.MISS) {
+            return (Key) cached;
         }
 
-        return lowestCommonAncestor(root, key1, key2);
+        Key ancestor = findLowestCommonAncestor(key1, key2);
+        cache.put(packed, key1, key2, version, ancestor);
+        return ancestor;
+    }
 
-}
-    private Key lowestCommonAncestor(Node node, Key key1, Key key2) {
-        //Check if this node is one of the two being searched for.
-        if (key1.equals(node.key) || key2.equals(node.key)) {
-            return node.key;
+    private Key findLowestCommonAncestor(Key key1, Key key2) {
+        if (eulerTour != null) {
+            return eulerTour.lowestCommonAncestor(key1, key2);
+        }
+
+        if (key1 == null || key2 == null) {
+            return null;
         }
 
-        int cmp1 = key1.compareTo(node.key);
-        int cmp2 = key2.compareTo(node.key);
+        //Descend while both nodes are on the same side of the current node.
+        Node node = root;
+        while (node != null) {
+            int cmp1 = key1.compareTo(node.key);
+            int cmp2 = key2.compareTo(node.key);
+            if (cmp1 < 0 && cmp2 < 0) {
+                node = node.left;   //Both nodes are on the left side of this node.
+            }
+            else if (cmp1 > 0 && cmp2 > 0) {
+                node = node.right;  //Both nodes are on the right side of this node.
+            }
+            else {
+                break;  //Keys are on opposite sides of this subtree, or one of them is this node.
+            }
+        }
 
-        //Choose direction to branch.
-        if (cmp1 < 0 && cmp2 < 0) {
-            return lowestCommonAncestor(node.left, key1, key2); //Both nodes are on the left side of this node.
+        //If both keys are not in BST.
+        if (node == null || getNode(node, key1) == null || getNode(node, key2) == null) {
+            return null;
         }
-        else if (cmp1 > 0 && cmp2 > 0) {
-            return lowestCommonAncestor(node.right, key1, key2);    //Both nodes are on the right side of this node.
+        return node.key;
+    }
+
+    /**
+     * Return the lowest common ancestor of each pair of keys, as by lowestCommonAncestor.
+     *
+     * @param keys1 - The keys of the first node of each pair.
+     * @param keys2 - The keys of the second node of each pair.
+     * @return        The lowest common ancestor of keys1[i] and keys2[i] at index i.
+     */
+    public ArrayList<Key> lowestCommonAncestors(Key[] keys1, Key[] keys2) {
+        if (keys1.length != keys2.length) {
+            throw new IllegalArgumentException("Key arrays must have the same length.");
         }
-        else {
-            return node.key;    //Keys are on opposite sides of this subtree, so this is greatest commmon ancestor.
+
+        ArrayList<Key> ancestors = new ArrayList<Key>(keys1.length);
+        for (int i = 0; i < keys1.length; i++) {
+            ancestors.add(lowestCommonAncestor(keys1[i], keys2[i]));
+        }
+        return ancestors;
+    }
+
+    /**
+     * Record the count and latency of lowestCommonAncestor queries in the given metrics.
+     *
+     * @param metrics - The metrics. Null to stop recording.
+     */
+    public void setMetrics(LcaMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Cache the results of lowestCommonAncestor queries, so that pairs asked for again are
+     * answered without searching. Any insert makes every earlier result stale.
+     *
+     * @param entries - The most results to keep.
+     * @param policy  - How results are chosen for eviction.
+     */
+    public void enableQueryCache(int entries, LcaCache.Policy policy) {
+        queryCache = new LcaCache(entries, policy);
+    }
+
+    /**
+     * Stop caching query results and release the cache.
+     */
+    public void disableQueryCache() {
+        queryCache = null;
+    }
+
+    /**
+     * @return The query cache, for its hit rate and other statistics. Null if there is none.
+     */
+    public LcaCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Compile the tree into a read-only EytzingerTree over the same keys and values, for lookup
+     * tables that are built once and then queried heavily. Takes linear time. Later inserts into
+     * this tree do not change the compiled one.
+     *
+     * @return The compiled tree.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public EytzingerTree<Key, Value> compile() {
+        ArrayList<Key> keys = new ArrayList<Key>();
+        ArrayList<Value> values = new ArrayList<Value>();
+        inOrder(keys, values);
+        return new EytzingerTree<Key, Value>(keys.toArray((Key[]) new Comparable[keys.size()]),
+                values.toArray((Value[]) new Object[values.size()]));
+    }
+
+    /**
+     * Add the keys and values of the tree, in key order, to two lists.
+     */
+    void inOrder(ArrayList<Key> keys, ArrayList<Value> values) {
+        for (Node node : inOrder()) {
+            keys.add(node.key);
+            values.add(node.value);
+        }
+    }
+
+    /**
+     * Put the tree into a read-only query mode, where lowestCommonAncestor takes one search for
+     * each key and then constant time. Takes linear time and memory. The next insert leaves query mode again.
+     */
+    public void freeze() {
+        if (eulerTour == null) {
+            eulerTour = new EulerTour();
+        }
+    }
+
+    /**
+     * @return A frozen copy of the tree, with the same shape, keys and values, for readers on
+     *         other threads. Later changes to this tree do not affect the copy.
+     */
+    BinarySearchTree<Key, Value> frozenCopy() {
+        BinarySearchTree<Key, Value> copy = new BinarySearchTree<Key, Value>(balanced);
+        if (root != null) {
+            //Copy node by node with explicit stacks, as degenerate trees are too deep to recurse over.
+            copy.root = copy.copyOf(root);
+            ArrayList<Node> originals = new ArrayList<Node>();
+            ArrayList<BinarySearchTree<Key, Value>.Node> copies = new ArrayList<BinarySearchTree<Key, Value>.Node>();
+            originals.add(root);
+            copies.add(copy.root);
+            while (!originals.isEmpty()) {
+                Node original = originals.remove(originals.size() - 1);
+                BinarySearchTree<Key, Value>.Node node = copies.remove(copies.size() - 1);
+                if (original.left != null) {
+                    node.left = copy.copyOf(original.left);
+                    originals.add(original.left);
+                    copies.add(node.left);
+                }
+                if (original.right != null) {
+                    node.right = copy.copyOf(original.right);
+                    originals.add(original.right);
+                    copies.add(node.right);
+                }
+            }
+        }
+        copy.freeze();
+        return copy;
+    }
+
+    /**
+     * @return A new node of this tree with the key, value and colour of a node of another.
+     */
+    private Node copyOf(BinarySearchTree<Key, Value>.Node original) {
+        Node node = new Node(original.key, original.value);
+        node.red = original.red;
+        return node;
+    }
+
+    /**
+     * @return Whether or not the tree is in query mode.
+     */
+    public boolean isFrozen() {
+        return eulerTour != null;
+    }
+
+    /**
+     * An Euler tour of the tree, with a range minimum structure over the depths along the tour.
+     * The lowest common ancestor of two nodes is the shallowest node visited between their first
+     * visits, so each query is a single range minimum lookup.
+     *
+     * Range minima are answered in constant time in two levels: a sparse table over the minima of
+     * 64-position blocks, and within a block, a bitmask per position recording which earlier
+     * positions of the block are the minimum of the range ending there.
+     */
+    private class EulerTour {
+        private static final int BLOCK = 64;
+
+        private final Node[] tour;      //Nodes in the order they are visited, returning to parents.
+        private final int[] depths;     //Depth of the node at each position of the tour.
+        private final long[] masks;     //In-block minima of the ranges ending at each position.
+        private final int[][] sparse;   //sparse[k][b]: position of the minimum over blocks b to b + 2^k - 1.
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private EulerTour() {
+            int size = inOrder().size();
+
+            //Walk the tour with an explicit stack, as degenerate trees are too deep to recurse over.
+            int length = Math.max(0, 2 * size - 1);
+            tour = (Node[]) new BinarySearchTree.Node[length];
+            depths = new int[length];
+            Node[] stack = (Node[]) new BinarySearchTree.Node[size];
+            boolean[] leftDone = new boolean[size];
+            boolean[] rightDone = new boolean[size];
+            int top = -1;
+            int position = 0;
+            if (root != null) {
+                stack[++top] = root;
+                root.eulerIndex = position;
+                tour[position] = root;
+                depths[position++] = 0;
+            }
+            while (top >= 0) {
+                Node node = stack[top];
+                Node child = null;
+                if (!leftDone[top]) {
+                    leftDone[top] = true;
+                    child = node.left;
+                }
+                else if (!rightDone[top]) {
+                    rightDone[top] = true;
+                    child = node.right;
+                }
+                else {
+                    top--;  //Return to the parent, visiting it again.
+                    if (top >= 0) {
+                        tour[position] = stack[top];
+                        depths[position++] = top;
+                    }
+                    continue;
+                }
+
+                if (child != null) {
+                    top++;
+                    stack[top] = child;
+                    leftDone[top] = false;
+                    rightDone[top] = false;
+                    child.eulerIndex = position;
+                    tour[position] = child;
+                    depths[position++] = top;
+                }
+            }
+
+            //Bitmasks of in-block minima: a monotonic stack of the positions that are still the
+            //minimum of the range from themselves to the current position.
+            masks = new long[length];
+            for (int blockStart = 0; blockStart < length; blockStart += BLOCK) {
+                long mask = 0;
+                for (int i = blockStart; i < Math.min(length, blockStart + BLOCK); i++) {
+                    while (mask != 0 && depths[blockStart + 63 - Long.numberOfLeadingZeros(mask)] >= depths[i]) {
+                        mask &= ~Long.highestOneBit(mask);
+                    }
+                    mask |= 1L << (i - blockStart);
+                    masks[i] = mask;
+                }
+            }
+
+            //Sparse table over the minimum of each block.
+            int blocks = (length + BLOCK - 1) / BLOCK;
+            int levels = 1;
+            while ((1 << levels) <= blocks) {
+                levels++;
+            }
+            sparse = new int[levels][];
+            sparse[0] = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                sparse[0][b] = minimum(b * BLOCK, Math.min(length, (b + 1) * BLOCK) - 1);
+            }
+            for (int k = 1; k < levels; k++) {
+                int span = 1 << (k - 1);
+                sparse[k] = new int[blocks - (1 << k) + 1];
+                for (int b = 0; b < sparse[k].length; b++) {
+                    sparse[k][b] = shallower(sparse[k - 1][b], sparse[k - 1][b + span]);
+                }
+            }
+        }
+
+        /**
+         * @return The lowest common ancestor of two keys. Null if either is not in the tree.
+         *         The nodes are found by searching the tree, so keys match by compareTo, as
+         *         they do while the tree is not frozen.
+         */
+        private Key lowestCommonAncestor(Key key1, Key key2) {
+            Node node1 = getNode(key1);
+            Node node2 = getNode(key2);
+            if (node1 == null || node2 == null) {
+                return null;
+            }
+
+            int from = Math.min(node1.eulerIndex, node2.eulerIndex);
+            int to = Math.max(node1.eulerIndex, node2.eulerIndex);
+            return tour[rangeMinimum(from, to)].key;
+        }
+
+        /**
+         * @return The position of the shallowest node of the tour between from and to, inclusive.
+         */
+        private int rangeMinimum(int from, int to) {
+            int fromBlock = from / BLOCK;
+            int toBlock = to / BLOCK;
+            if (fromBlock == toBlock) {
+                return minimum(from, to);
+            }
+
+            int best = shallower(minimum(from, (fromBlock + 1) * BLOCK - 1), minimum(toBlock * BLOCK, to));
+            if (toBlock - fromBlock > 1) {
+                int k = 31 - Integer.numberOfLeadingZeros(toBlock - fromBlock - 1);
+                best = shallower(best, sparse[k][fromBlock + 1]);
+                best = shallower(best, sparse[k][toBlock - (1 << k)]);
+            }
+            return best;
+        }
+
+        /**
+         * @return The position of the shallowest node between from and to, within a single block.
+         */
+        private int minimum(int from, int to) {
+            int blockStart = from - from % BLOCK;
+            long candidates = masks[to] & (-1L << (from - blockStart));
+            return blockStart + Long.numberOfTrailingZeros(candidates);
+        }
+
+        private int shallower(int position1, int position2) {
+            return depths[position2] < depths[position1] ? position2 : position1;
         }
     }
 
+    /**
+     * @return The nodes of the tree in key order, collected without recursion.
+     */
+    private ArrayList<Node> inOrder() {
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        ArrayList<Node> stack = new ArrayList<Node>();
+        Node node = root;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.add(node);
+                node = node.left;
+            }
+            node = stack.remove(stack.size() - 1);
+            nodes.add(node);
+            node = node.right;
+        }
+        return nodes;
+    }
+
     /**
      * Produces a String representation of the BST where child element of a node
      * are placed in between brackets to the left and right of the parent node.
+     * For large trees, writeTo() streams the same text instead of holding it all in memory.
      *
      * @return  - A String representation of the BST.
      */
     public String toString() {
-        return toString(root, 0);
+        StringBuilder string = new StringBuilder();
+        try {
+            writeTo(string);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  //A StringBuilder does not throw.
+        }
+        return string.toString();
     }
 
     /**
-     * Produces a String representation of the subtree where the children of a node
+     * Writes the BST in the form of toString(), where the children of a node
      * are placed in between brackets to the left and right of the parent node.
      * The key, value and depth of each node is displayed.
+     * Walks the tree with an explicit stack, so deep trees do not overflow the call stack,
+     * and nothing is held beyond the path being walked. Output is not buffered here:
+     * pass a BufferedWriter or similar.
      *
-     * @param depth - The number of levels of recursion the function is run.
-     * @return      - A String representation of the BST.
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
      */
-    private String toString(Node node, int depth) {
-        if (node == null) {
-            return "x";
+    public void writeTo(Appendable out) throws IOException {
+        Node node = root;
+        ArrayList<Node> stack = new ArrayList<Node>();
+        ArrayList<Boolean> rightStarted = new ArrayList<Boolean>();
+
+        //Open the subtree of each node down the left spine.
+        while (node != null) {
+            out.append("( ");
+            stack.add(node);
+            rightStarted.add(false);
+            node = node.left;
         }
-        else {
-            return "( " + toString(node.left, depth + 1) + " ) " + node.key + ":" + node.value + "[" + depth + "] ( " + toString(node.right, depth + 1) + " )";
+        out.append("x");
+
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            if (rightStarted.get(top)) {
+                out.append(" )");    //Both subtrees of this node are done.
+                stack.remove(top);
+                rightStarted.remove(top);
+                continue;
+            }
+
+            //Left subtree is done: print this node, then start on its right subtree.
+            Node parent = stack.get(top);
+            out.append(" ) ").append(String.valueOf(parent.key)).append(":").append(String.valueOf(parent.value))
+               .append("[").append(Integer.toString(top)).append("] ( ");
+            rightStarted.set(top, true);
+            node = parent.right;
+            while (node != null) {
+                out.append("( ");
+                stack.add(node);
+                rightStarted.add(false);
+                node = node.left;
+            }
+            out.append("x");
+        }
+    }
+
+    /**
+     * Writes the BST in GraphViz DOT form. Each node is labelled with its key and value, and
+     * edges run from parents to children, left child first. Output is as writeTo().
+     *
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
+     */
+    public void writeDot(Appendable out) throws IOException {
+        out.append("digraph {\n");
+        ArrayList<Node> stack = new ArrayList<Node>();
+        ArrayList<Integer> ids = new ArrayList<Integer>();  //Number of each node on the stack, in the order written.
+        int next = 0;
+        if (root != null) {
+            stack.add(root);
+            ids.add(next++);
+        }
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            int id = ids.remove(ids.size() - 1);
+            out.append("  ").append(Integer.toString(id)).append(" [label=\"");
+            appendEscaped(out, String.valueOf(node.key));
+            out.append(":");
+            appendEscaped(out, String.valueOf(node.value));
+            out.append("\"];\n");
+
+            //Push the right child first, so the left one is written first.
+            int left = node.left != null ? next++ : -1;
+            int right = node.right != null ? next++ : -1;
+            if (left >= 0) {
+                out.append("  ").append(Integer.toString(id)).append(" -> ").append(Integer.toString(left)).append(";\n");
+            }
+            if (right >= 0) {
+                out.append("  ").append(Integer.toString(id)).append(" -> ").append(Integer.toString(right)).append(";\n");
+                stack.add(node.right);
+                ids.add(right);
+            }
+            if (left >= 0) {
+                stack.add(node.left);
+                ids.add(left);
+            }
+        }
+        out.append("}\n");
+    }
+
+    /**
+     * Writes each edge of the BST as a "parent child" line of keys, in the order of writeDot().
+     * Output is as writeTo().
+     *
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
+     */
+    public void writeEdgeList(Appendable out) throws IOException {
+        ArrayList<Node> stack = new ArrayList<Node>();
+        if (root != null) {
+            stack.add(root);
+        }
+
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if (node.left != null) {
+                out.append(String.valueOf(node.key)).append(' ').append(String.valueOf(node.left.key)).append('\n');
+            }
+            if (node.right != null) {
+                out.append(String.valueOf(node.key)).append(' ').append(String.valueOf(node.right.key)).append('\n');
+                stack.add(node.right);
+            }
+            if (node.left != null) {
+                stack.add(node.left);
+            }
+        }
+    }
+
+    /**
+     * Append text inside a DOT string, escaping quotes and backslashes.
+     */
+    private static void appendEscaped(Appendable out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c);
         }
     }
 
@@ -0,0 +1,212 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A balanced BST that can be shared between threads without external locking.
+ *
+ * Nodes are immutable. An insert copies the path from the root to the changed node (plus any
+ * nodes rotated while rebalancing) and publishes the new root with a compare-and-set, retrying if
+ * another insert got there first. Readers only ever follow one root, so they never block and
+ * never wait for writers, and every query sees a single consistent version of the tree.
+ *
+ * The tree is kept as a left-leaning red-black tree, so an insert copies O(log n) nodes.
+ *
+ * Reads scale with threads, but writes do not: every insert publishes through the one root, so
+ * writers are serialized, and an insert that loses the compare-and-set throws its copied path
+ * away and starts over. Under write-heavy load, more writers only add retries. In
+ * ConcurrentBstBenchmark.insert over 100,000 keys on one core, 32 threads managed about 0.44
+ * inserts per microsecond against 0.94 for one thread. Waiting after a lost compare-and-set did
+ * not change that, so there is none. Trees that take many concurrent writes should batch them
+ * through a single writer, as ConcurrentDAG does.
+ */
+public class ConcurrentBinarySearchTree<Key extends Comparable<Key>, Value> {
+    private final AtomicReference<Node<Key, Value>> root = new AtomicReference<Node<Key, Value>>();
+
+    private static final class Node<Key, Value> {
+        private final Node<Key, Value> left, right; //Left and right children of this node. Null if empty.
+
+        private final Key key;      //Unique key of the node.
+        private final Value value;  //May have same value as other nodes.
+        private final boolean red;  //Colour of the link from the parent.
+
+        private Node(Node<Key, Value> left, Node<Key, Value> right, Key key, Value value, boolean red) {
+            this.left = left;
+            this.right = right;
+            this.key = key;
+            this.value = value;
+            this.red = red;
+        }
+    }
+
+    /**
+     * Insert a new node into the BST. If key exists, replace with new value.
+     * Should not insert a new node with a null key or value.
+     *
+     * @param key   - The key of the new node.
+     * @param value - The value of the new node.
+     */
+    public void insert(Key key, Value value) {
+        if (key == null || value == null) {
+            return;
+        }
+
+        while (true) {
+            Node<Key, Value> current = root.get();
+            Node<Key, Value> updated = insert(current, key, value);
+            if (updated.red) {
+                updated = new Node<Key, Value>(updated.left, updated.right, updated.key, updated.value, false);
+            }
+            if (root.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build a copy of the subtree with the new node inserted, rebalanced on the way back up.
+     *
+     * @param node  - The node below which the new node will be inserted.
+     * @param key   - The key of the new node.
+     * @param value - The value of the new node.
+     * @return        The root of the new subtree.
+     */
+    private Node<Key, Value> insert(Node<Key, Value> node, Key key, Value value) {
+        if (node == null) {
+            return new Node<Key, Value>(null, null, key, value, true);
+        }
+
+        int cmp = key.compareTo(node.key);
+        if (cmp < 0) {
+            node = new Node<Key, Value>(insert(node.left, key, value), node.right, node.key, node.value, node.red);
+        }
+        else if (cmp > 0) {
+            node = new Node<Key, Value>(node.left, insert(node.right, key, value), node.key, node.value, node.red);
+        }
+        else {
+            return new Node<Key, Value>(node.left, node.right, node.key, value, node.red);
+        }
+
+        if (isRed(node.right) && !isRed(node.left)) {
+            node = rotateLeft(node);
+        }
+        if (isRed(node.left) && isRed(node.left.left)) {
+            node = rotateRight(node);
+        }
+        if (isRed(node.left) && isRed(node.right)) {
+            node = flipColours(node);
+        }
+        return node;
+    }
+
+    private static boolean isRed(Node<?, ?> node) {
+        return node != null && node.red;
+    }
+
+    private static <Key, Value> Node<Key, Value> rotateLeft(Node<Key, Value> node) {
+        Node<Key, Value> right = node.right;
+        Node<Key, Value> lowered = new Node<Key, Value>(node.left, right.left, node.key, node.value, true);
+        return new Node<Key, Value>(lowered, right.right, right.key, right.value, node.red);
+    }
+
+    private static <Key, Value> Node<Key, Value> rotateRight(Node<Key, Value> node) {
+        Node<Key, Value> left = node.left;
+        Node<Key, Value> lowered = new Node<Key, Value>(left.right, node.right, node.key, node.value, true);
+        return new Node<Key, Value>(left.left, lowered, left.key, left.value, node.red);
+    }
+
+    private static <Key, Value> Node<Key, Value> flipColours(Node<Key, Value> node) {
+        Node<Key, Value> left = node.left, right = node.right;
+        return new Node<Key, Value>(
+                new Node<Key, Value>(left.left, left.right, left.key, left.value, !left.red),
+                new Node<Key, Value>(right.left, right.right, right.key, right.value, !right.red),
+                node.key, node.value, !node.red);
+    }
+
+    /**
+     * Search for a node by its key, and then return its value.
+     * A null key has a null value.
+     *
+     * @param key - The key of the node being searched for.
+     * @return      The value of the node, if found. Null if not found.
+     */
+    public Value getValue(Key key) {
+        Node<Key, Value> node = getNode(root.get(), key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Returns whether or not a given key exists in the BST.
+     * @param key - The key of the node being searched for.
+     * @return Whether or not the node of the key exists.
+     */
+    public boolean contains(Key key) {
+        return getNode(root.get(), key) != null;
+    }
+
+    private Node<Key, Value> getNode(Node<Key, Value> node, Key key) {
+        if (key == null) {
+            return null;
+        }
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            }
+            else if (cmp > 0) {
+                node = node.right;
+            }
+            else {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the key of the lowest parent that two nodes have in common, in a single version of
+     * the tree: inserts made while the query runs are not seen.
+     *
+     * @param key1 - The key of the first node.
+     * @param key2 - The key of the second node.
+     * @return       The lowest common ancestor. Null if passes keys are invalid.
+     */
+    public Key lowestCommonAncestor(Key key1, Key key2) {
+        if (key1 == null || key2 == null) {
+            return null;
+        }
+
+        //Descend while both nodes are on the same side of the current node.
+        Node<Key, Value> node = root.get();
+        while (node != null) {
+            int cmp1 = key1.compareTo(node.key);
+            int cmp2 = key2.compareTo(node.key);
+            if (cmp1 < 0 && cmp2 < 0) {
+                node = node.left;
+            }
+            else if (cmp1 > 0 && cmp2 > 0) {
+                node = node.right;
+            }
+            else {
+                break;
+            }
+        }
+
+        if (node == null || getNode(node, key1) == null || getNode(node, key2) == null) {
+            return null;
+        }
+        return node.key;
+    }
+
+    /**
+     * @return The number of links on the longest path from the root to a leaf. -1 if empty.
+     */
+    int height() {
+        return height(root.get());
+    }
+
+    private int height(Node<Key, Value> node) {
+        if (node == null) {
+            return -1;
+        }
+        return 1 + Math.max(height(node.left), height(node.right));
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+
+/**
+ * A DAG that one writer thread can change while any number of reader threads query it.
+ *
+ * Edges are added to a private working graph, and are not seen by readers until publish() is
+ * called. Publishing replaces the snapshot that readers query with a read-only copy of the working
+ * graph in a single volatile write, so readers never block and never see a partly updated graph.
+ * Writers should batch edges between publishes, as each publish packs the working graph.
+ */
+public class ConcurrentDAG {
+    private final DAG graph;            // The working graph that edges are added to. Guarded by this.
+    private volatile DAG published;     // The snapshot that queries are answered from.
+
+    /**
+     * Constructor.
+     * @param v - Number of vertices.
+     */
+    public ConcurrentDAG(int v) {
+        graph = new DAG(v);
+        published = graph.snapshot();
+    }
+
+    /**
+     * Add a new vertex to the working graph, as by DAG.addVertex.
+     *
+     * @return The new vertex.
+     */
+    public synchronized int addVertex() {
+        return graph.addVertex();
+    }
+
+    /**
+     * Add a directed edge from v->w to the working graph. Not seen by queries until publish().
+     *
+     * @param v - Origin vertex.
+     * @param w - Destination vertex.
+     * @return Whether or not the edge was added.
+     */
+    public synchronized boolean addEdge(int v, int w) {
+        return graph.addEdge(v, w);
+    }
+
+    /**
+     * Add a directed edge between two external keys to the working graph, as by
+     * DAG.addEdge(long, long). Not seen by queries until publish().
+     *
+     * @param v - Origin key.
+     * @param w - Destination key.
+     * @return Whether or not the edge was added.
+     */
+    public synchronized boolean addEdge(long v, long w) {
+        return graph.addEdge(v, w);
+    }
+
+    /**
+     * Add many directed edges to the working graph, as by DAG.addEdges.
+     * Not seen by queries until publish().
+     *
+     * @param edges - Origin and destination vertex of each edge, one after the other.
+     * @return The cycle-completing edges that were not added.
+     */
+    public synchronized int[] addEdges(int[] edges) {
+        return graph.addEdges(edges);
+    }
+
+    /**
+     * Use an ancestor index in published snapshots, as by DAG.enableAncestorIndex.
+     * Takes effect from the next publish().
+     *
+     * @param maxBytes - The most memory the index may take.
+     */
+    public synchronized void enableAncestorIndex(long maxBytes) {
+        graph.enableAncestorIndex(maxBytes);
+    }
+
+    /**
+     * Cache query results in published snapshots, as by DAG.enableQueryCache.
+     * Takes effect from the next publish(). Results stay valid across publishes until an edge is
+     * added.
+     *
+     * @param entries - The most results to keep.
+     * @param policy - How results are chosen for eviction.
+     */
+    public synchronized void enableQueryCache(int entries, LcaCache.Policy policy) {
+        graph.enableQueryCache(entries, policy);
+    }
+
+    /**
+     * Record queries and edge inserts in the given metrics from now on, as by DAG.setMetrics.
+     * Applies to the working graph and to the published snapshot straight away.
+     *
+     * @param metrics - The metrics. Null to stop recording.
+     */
+    public synchronized void setMetrics(LcaMetrics metrics) {
+        graph.setMetrics(metrics);
+        published.setMetrics(metrics);
+    }
+
+    /**
+     * Make every edge added so far visible to queries.
+     */
+    public synchronized void publish() {
+        published = graph.snapshot();
+    }
+
+    /**
+     * @return The snapshot currently used for queries. Stays unchanged for as long as it is held.
+     */
+    public DAG snapshot() {
+        return published;
+    }
+
+    /**
+     * The lowest common ancestors of v1 and v2 in the published snapshot, as by
+     * DAG.lowestCommonAncestors.
+     *
+     * @param v1 - vertex 1.
+     * @param v2 - vertex 2.
+     * @return The lowest common ancestors of v1 and v2. Null if either does not exist.
+     */
+    public ArrayList<Integer> lowestCommonAncestors(int v1, int v2) {
+        return published.lowestCommonAncestors(v1, v2);
+    }
+
+    /**
+     * The lowest common ancestors of the vertices with keys v1 and v2 in the published snapshot,
+     * as by DAG.lowestCommonAncestors(long, long).
+     *
+     * @param v1 - key of vertex 1.
+     * @param v2 - key of vertex 2.
+     * @return The keys of the lowest common ancestors. Null if either key has not been published.
+     */
+    public long[] lowestCommonAncestors(long v1, long v2) {
+        return published.lowestCommonAncestors(v1, v2);
+    }
+}
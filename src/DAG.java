@@ -1,97 +1,944 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class DAG {
     public static final int UNVISITED = 0, IN_PROGRESS = 1, VISITED = 2;
 
-    private final ArrayList<Integer>[] adjTable;    // Adjacency table for all adjacency lists.
+    // Binary file format written by save(): a header, then int and long arrays, each 8-byte aligned.
+    private static final int FILE_MAGIC = 0x44414731;   // "DAG1"
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER = 32;
+    private static final int FILE_HAS_INDEX = 1;
+
+    private static final int MAX_VERTICES = Integer.MAX_VALUE - 8;    // Most vertices the arrays can hold.
+    private static final int BATCH_SPLIT = 512;     // Batch queries handled by one task before splitting.
+    private static final ThreadLocal<LcaScratch> SCRATCH = new ThreadLocal<LcaScratch>() {
+        protected LcaScratch initialValue() {
+            return new LcaScratch();
+        }
+    };
+
+    private final AdjacencyTable adjTable;      // Adjacency table for all adjacency lists.
+    private final AdjacencyTable parentTable;   // Reversed adjacency table, listing the parents of each vertex in ascending order.
+    private final LongHashSet edges;            // Every edge v->w, packed as (v << 32) | w.
+
+    // External long keys, for graphs built with addEdge(long, long). Null until a key is used.
+    private LongIntHashMap vertexOfKey;     // Vertex of each key.
+    private long[] keyOf;                   // Key of each vertex, with room for more vertices.
+
+    // Online topological order, kept valid as edges are added so that cycle checks only
+    // search the region of the order affected by the new edge.
+    private int[] order;                // Topological index of each vertex, with room for more vertices.
+    private int[] vertexAt;             // Vertex at each topological index.
+    private final IntBuffer mappedOrder;    // Topological index of each vertex, for a graph opened from a file.
+
+    private int[] marks;                // Scratch space for cycle checks, stamped per search.
+    private int markStamp;
+    private int[] stack = new int[16];
+    private int[] region = new int[16];
+
+    private AncestorIndex ancestorIndex;    // Precomputed ancestor sets. Null if disabled or out of date.
+    private long ancestorIndexBytes;        // Memory budget for the ancestor index. 0 if disabled.
+
+    private final boolean readOnly;         // Whether or not this is a snapshot, which cannot change.
+    private volatile LcaMetrics metrics;    // Where queries and inserts are recorded. Null if not measured.
+    private volatile LcaCache queryCache;   // Results of recent queries. Null if not cached.
+    private long version;                   // Number of edges inserted, to tag cached results with.
+    private volatile boolean bidirectional = true;  // Whether or not queries mark the ancestors of v1 lazily.
+
+    /**
+     * Constructor for an empty graph, which grows as edges are added.
+     */
+    public DAG() {
+        this(0);
+    }
 
     /**
      * Constructor.
-     * @param v - Number of vertices.
+     * @param v - Number of vertices to start with. More are added as needed.
      */
     public DAG(int v) {
         //Create table of adjacency lists for v vertices.
-        adjTable = (ArrayList<Integer>[]) new ArrayList[v];
-        for (int i = 0; i < v; i++)
-            adjTable[i] = new ArrayList<Integer>();
+        adjTable = new AdjacencyTable(v);
+        parentTable = new AdjacencyTable(v);
+        edges = new LongHashSet(v);
+
+        // With no edges, any order is topological.
+        order = new int[v];
+        vertexAt = new int[v];
+        for (int i = 0; i < v; i++) {
+            order[i] = i;
+            vertexAt[i] = i;
+        }
+        marks = new int[v];
+        mappedOrder = null;
+        readOnly = false;
+    }
+
+    /**
+     * Constructor for a read-only snapshot of another graph.
+     * The snapshot shares the frozen tables of the source, and builds its ancestor index up front,
+     * so that queries never modify it and it can be read by any number of threads at once.
+     *
+     * @param source - The graph to take a snapshot of.
+     */
+    private DAG(DAG source) {
+        adjTable = source.adjTable.frozenCopy();
+        parentTable = source.parentTable.frozenCopy();
+        edges = null;
+        order = Arrays.copyOf(source.order, adjTable.vertices());
+        vertexAt = Arrays.copyOf(source.vertexAt, adjTable.vertices());
+        mappedOrder = null;
+        marks = null;
+        if (source.vertexOfKey != null) {
+            vertexOfKey = new LongIntHashMap(source.vertexOfKey);
+            keyOf = Arrays.copyOf(source.keyOf, adjTable.vertices());
+        }
+        ancestorIndexBytes = source.ancestorIndexBytes;
+        metrics = source.metrics;
+        queryCache = source.queryCache;
+        version = source.version;
+        bidirectional = source.bidirectional;
+        ancestorIndex = source.ancestorIndex();     // Immutable, so it can be shared.
+        readOnly = true;
+    }
+
+    /**
+     * Take a read-only snapshot of the graph as it is now.
+     * Later edges added to this graph are not seen by the snapshot. Queries on a snapshot are safe
+     * to run from many threads at once, while this graph is being changed by another thread.
+     * Adding an edge to the snapshot itself throws an UnsupportedOperationException.
+     *
+     * Taking a snapshot freezes this graph, and shares its packed tables with the snapshot.
+     *
+     * @return The snapshot.
+     */
+    public DAG snapshot() {
+        return readOnly ? this : new DAG(this);
+    }
+
+    /**
+     * Constructor for a read-only graph over tables that were built before, such as ones mapped
+     * from a file.
+     *
+     * @param adjTable - The frozen adjacency table.
+     * @param parentTable - The frozen parent table.
+     * @param order - The topological index of each vertex.
+     * @param index - The ancestor index. Null if there is none.
+     */
+    private DAG(AdjacencyTable adjTable, AdjacencyTable parentTable, IntBuffer order, AncestorIndex index) {
+        this.adjTable = adjTable;
+        this.parentTable = parentTable;
+        edges = null;
+        this.order = null;
+        vertexAt = null;
+        mappedOrder = order;
+        marks = null;
+        ancestorIndex = index;
+        readOnly = true;
+    }
+
+    /**
+     * Write the graph to a file in a compact binary form, which open() maps back into memory.
+     * Packs the graph, as by freeze(). If the ancestor index is enabled it is written too.
+     *
+     * The file holds the packed adjacency and parent tables, the topological order and the index,
+     * as little-endian arrays. Each array must be under 2GB.
+     *
+     * @param file - The file to write. Replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        freeze();
+        AncestorIndex index = ancestorIndex();
+        int vertices = adjTable.vertices();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(vertices).putInt((int) adjTable.size());
+            header.putInt(index != null ? FILE_HAS_INDEX : 0);
+            header.putInt(index != null ? index.words().limit() : 0);
+            header.clear();
+            writeFully(channel, header);
+
+            ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            writeInts(channel, adjTable.offsets(), chunk);
+            writeInts(channel, adjTable.targets(), chunk);
+            writeInts(channel, parentTable.offsets(), chunk);
+            writeInts(channel, parentTable.targets(), chunk);
+            writeInts(channel, order != null ? IntBuffer.wrap(order, 0, vertices) : mappedOrder.duplicate(), chunk);
+            if (index != null) {
+                writeInts(channel, index.order(), chunk);
+                writeInts(channel, index.start(), chunk);
+                writeInts(channel, index.firstWord(), chunk);
+                LongBuffer words = index.words();
+                while (words.hasRemaining()) {
+                    chunk.clear();
+                    while (chunk.remaining() >= 8 && words.hasRemaining())
+                        chunk.putLong(words.get());
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a graph written by save(), by mapping the file into memory read-only.
+     * Nothing is copied onto the heap: queries read the mapped file directly, so opening is
+     * near-instant and processes that open the same file share its pages.
+     * The graph is read-only, as a snapshot is.
+     *
+     * @param file - The file to open.
+     * @return The graph.
+     * @throws IOException If the file cannot be read or is not a DAG file.
+     */
+    public static DAG open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < FILE_HEADER)
+                throw new IOException(file + " is not a DAG file.");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION)
+                throw new IOException(file + " is not a DAG file.");
+            int vertices = header.getInt();
+            int edgeCount = header.getInt();
+            boolean hasIndex = (header.getInt() & FILE_HAS_INDEX) != 0;
+            int indexWords = header.getInt();
+
+            long[] position = {FILE_HEADER};
+            IntBuffer childOffsets = mapInts(channel, position, vertices + 1);
+            IntBuffer childTargets = mapInts(channel, position, edgeCount);
+            IntBuffer parentOffsets = mapInts(channel, position, vertices + 1);
+            IntBuffer parentTargets = mapInts(channel, position, edgeCount);
+            IntBuffer order = mapInts(channel, position, vertices);
+
+            AncestorIndex index = null;
+            if (hasIndex) {
+                IntBuffer indexOrder = mapInts(channel, position, vertices);
+                IntBuffer start = mapInts(channel, position, vertices);
+                IntBuffer firstWord = mapInts(channel, position, vertices);
+                LongBuffer words = map(channel, position, indexWords * 8L).asLongBuffer();
+                index = new AncestorIndex(indexOrder, start, firstWord, words);
+            }
+
+            return new DAG(new AdjacencyTable(childOffsets, childTargets),
+                    new AdjacencyTable(parentOffsets, parentTargets), order, index);
+        }
+    }
+
+    /**
+     * Load a graph from a text edge list of "v w" pairs, one edge per line.
+     * The file is streamed and parsed without creating Strings. The graph is sized to the largest
+     * vertex in the file, and all the edges are added as one batch by addEdges(), so duplicate and
+     * cycle-completing edges are skipped.
+     * Blank lines and lines starting with '#' or '%' are ignored.
+     *
+     * @param file - The file to read.
+     * @return The graph.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static DAG readEdgeList(Path file) throws IOException {
+        EdgeListReader reader = new EdgeListReader();
+        reader.readText(file);
+        return fromEdges(reader);
+    }
+
+    /**
+     * Load a graph from a binary edge list of little-endian 32-bit "v w" pairs.
+     * Otherwise as readEdgeList().
+     *
+     * @param file - The file to read.
+     * @return The graph.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public static DAG readBinaryEdgeList(Path file) throws IOException {
+        EdgeListReader reader = new EdgeListReader();
+        reader.readBinary(file);
+        return fromEdges(reader);
+    }
+
+    private static DAG fromEdges(EdgeListReader reader) {
+        DAG dag = new DAG(reader.maxVertex() + 1);
+        dag.addEdges(reader.edges(), reader.length());
+        return dag;
+    }
+
+    /**
+     * Write an int array to the channel through a reusable chunk, padded to 8 bytes.
+     */
+    private static void writeInts(FileChannel channel, IntBuffer ints, ByteBuffer chunk) throws IOException {
+        int count = ints.remaining();
+        while (ints.hasRemaining()) {
+            chunk.clear();
+            IntBuffer view = chunk.asIntBuffer();
+            int length = Math.min(view.remaining(), ints.remaining());
+            IntBuffer slice = ints.slice();
+            slice.limit(length);
+            view.put(slice);
+            ints.position(ints.position() + length);
+            chunk.limit(length * 4);
+            writeFully(channel, chunk);
+        }
+        if (count % 2 != 0) {
+            chunk.clear();
+            chunk.putInt(0).flip();
+            writeFully(channel, chunk);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Map the next int array of the file, and advance the position past it and its padding.
+     */
+    private static IntBuffer mapInts(FileChannel channel, long[] position, int count) throws IOException {
+        IntBuffer ints = map(channel, position, count * 4L).asIntBuffer();
+        if (count % 2 != 0)
+            position[0] += 4;
+        return ints;
+    }
+
+    /**
+     * Map the next bytes of the file read-only, and advance the position past them.
+     */
+    private static ByteBuffer map(FileChannel channel, long[] position, long bytes) throws IOException {
+        if (bytes > Integer.MAX_VALUE)
+            throw new IOException("Array of " + bytes + " bytes is too large to map.");
+        if (position[0] + bytes > channel.size())
+            throw new IOException("DAG file is truncated.");
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position[0], bytes).order(ByteOrder.LITTLE_ENDIAN);
+        position[0] += bytes;
+        return buffer;
+    }
+
+    /**
+     * @return Whether or not this graph is a read-only snapshot.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Throw if this graph is a read-only snapshot.
+     */
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("DAG snapshots are read-only.");
+    }
+
+    /**
+     * @return The number of vertices, 0 to vertices() - 1.
+     */
+    public int vertices() {
+        return adjTable.vertices();
+    }
+
+    /**
+     * Add a new vertex with no edges.
+     *
+     * @return The new vertex, numbered after every existing one.
+     */
+    public int addVertex() {
+        checkWritable();
+        int v = adjTable.vertices();
+        grow(v + 1);
+        return v;
+    }
+
+    /**
+     * Choose how queries not covered by the ancestor index find the ancestors of v1.
+     *
+     * Bidirectional, the default: the ancestors of v1 are found lazily, deepest first in
+     * topological order, interleaved with the search up from v2, and only as far as that search
+     * needs. A vertex can only be an ancestor of v1 if it comes before v1 in topological order, so
+     * once every queued ancestor comes before the vertex being tested, the test is settled. When
+     * the answer is a few levels up, only a small part of a deep history is touched.
+     *
+     * Otherwise the whole ancestor closure of v1 is marked before the search starts. That costs
+     * less per vertex, so it can win when the answer is far up and most of the closure is needed
+     * anyway. The answers are the same either way.
+     * Snapshots taken afterwards use the same setting.
+     *
+     * @param bidirectional - Whether or not to search both ways.
+     */
+    public void setBidirectionalSearch(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
+
+    /**
+     * Record queries and edge inserts on this graph in the given metrics from now on.
+     * Snapshots taken afterwards record into the same metrics.
+     *
+     * @param metrics - The metrics. Null to stop recording.
+     */
+    public void setMetrics(LcaMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The metrics queries and edge inserts are recorded in. Null if there are none.
+     */
+    public LcaMetrics getMetrics() {
+        return metrics;
     }
 
     /**
      * Add a directed edge from v->w.
+     * If either vertex is past the last one, the graph first grows to include it.
      *
      * @param v - Origin vertex.
      * @param w - Destination vertex.
+     * @return Whether or not the edge was added. False if it already exists, would complete a
+     *         cycle, or has a vertex that is negative or past the most a graph can hold.
+     */
+    public boolean addEdge(int v, int w) {
+        checkWritable();
+        if (isVertex(v) && isVertex(w)) {
+            grow(Math.max(v, w) + 1);
+            return addEdge(adjTable, v, w);
+        }
+
+        LcaMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.recordEdges(0, 0, 0, 1);
+        return false;
+    }
+
+    /**
+     * @return Whether or not v can be a vertex: not negative, and below the most a graph can hold.
+     */
+    private static boolean isVertex(int v) {
+        return v >= 0 && v < MAX_VERTICES;
+    }
+
+    /**
+     * Add a directed edge from the vertex with key v to the vertex with key w.
+     * Keys can be any long, such as hashes or sparse IDs. Each new key is given the next vertex,
+     * as by addVertex(), and the key is mapped to it in a primitive hash table.
+     * A graph built from keys should only be given keys, not plain vertices.
+     * A rejected edge adds no keys: a self-loop is rejected first, and an edge to a new key can
+     * neither exist already nor complete a cycle.
+     *
+     * @param v - Origin key.
+     * @param w - Destination key.
+     * @return Whether or not the edge was added. False if it already exists or would complete a cycle.
+     */
+    public boolean addEdge(long v, long w) {
+        checkWritable();
+        if (v == w) {
+            LcaMetrics metrics = this.metrics;
+            if (metrics != null)
+                metrics.recordEdges(0, 1, 0, 0);
+            return false;
+        }
+        return addEdge(adjTable, vertexOf(v), vertexOf(w));
+    }
+
+    /**
+     * @param key - An external key.
+     * @return The vertex of the key. -1 if the key has not been added.
+     */
+    public int vertex(long key) {
+        return vertexOfKey != null ? vertexOfKey.get(key) : -1;
+    }
+
+    /**
+     * @param vertex - A vertex added by its key.
+     * @return The key of the vertex.
+     * @throws IllegalArgumentException If the vertex was not added by a key.
+     */
+    public long key(int vertex) {
+        if (!hasKey(vertex))
+            throw new IllegalArgumentException("Vertex " + vertex + " has no key.");
+        return keyOf[vertex];
+    }
+
+    /**
+     * @return Whether or not the vertex was added by a key. Vertices added without one may be
+     *         past the end of keyOf, or hold a stale 0 in it.
+     */
+    private boolean hasKey(int vertex) {
+        return keyOf != null && vertex >= 0 && vertex < keyOf.length && vertex < adjTable.vertices()
+            && vertexOfKey.get(keyOf[vertex]) == vertex;
+    }
+
+    /**
+     * The vertex of a key, adding a new vertex if the key is new.
+     */
+    private int vertexOf(long key) {
+        if (vertexOfKey == null) {
+            vertexOfKey = new LongIntHashMap(16);
+            keyOf = new long[adjTable.vertices() + 16];
+        }
+
+        int v = vertexOfKey.get(key);
+        if (v < 0) {
+            v = adjTable.vertices();
+            grow(v + 1);
+            vertexOfKey.put(key, v);
+            if (v >= keyOf.length)
+                keyOf = Arrays.copyOf(keyOf, Math.max(v + 1, keyOf.length * 2));
+            keyOf[v] = key;
+        }
+        return v;
+    }
+
+    /**
+     * Add vertices with no edges, up to the given number in total.
+     * Storage doubles as it runs out, so existing adjacency stays in place and growing one vertex
+     * at a time takes amortised constant time. New vertices go last in the topological order.
+     *
+     * @param vertices - The number of vertices wanted.
      */
-    public void addEdge(int v, int w) {
-        if (v >= 0 && v < adjTable.length && w >= 0 && w < adjTable.length)
-            addEdge(adjTable, v, w);
-        else System.out.println("Edge " + v + "->" + w + " ignored due to non-existent vertex.");
+    private void grow(int vertices) {
+        int current = adjTable.vertices();
+        if (vertices <= current)
+            return;
+
+        adjTable.grow(vertices);
+        parentTable.grow(vertices);
+        if (vertices > order.length) {
+            int capacity = (int) Math.max(vertices, Math.min((long) order.length * 2, MAX_VERTICES));
+            order = Arrays.copyOf(order, capacity);
+            vertexAt = Arrays.copyOf(vertexAt, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+        }
+        for (int v = current; v < vertices; v++)
+            place(v, v);
+        ancestorIndex = null;
     }
 
     /**
      * Add edge v->w to the adjacency table if it does not exist otherwise.
+     * An edge that would complete a cycle is rejected.
      *
      * @param adjTable - The adjacency table to insert the new edge.
      * @param v - Origin vertex.
      * @param w - Destination vertex.
+     * @return Whether or not the edge was added.
+     */
+    private boolean addEdge(AdjacencyTable adjTable, int v, int w) {
+        LcaMetrics metrics = this.metrics;
+        if (!edges.contains(edgeKey(v, w))) {
+            if (reorder(v, w)) {
+                insertEdge(v, w);
+                if (metrics != null)
+                    metrics.recordEdges(1, 0, 0, 0);
+                return true;
+            }
+            else if (metrics != null)
+                metrics.recordEdges(0, 1, 0, 0);
+        }
+        else if (metrics != null)
+            metrics.recordEdges(0, 0, 1, 0);
+        return false;
+    }
+
+    /**
+     * Add many directed edges at once, validating acyclicity once for the whole batch.
+     * The edges are given as consecutive pairs, so edges[2i]->edges[2i + 1] is the i-th edge.
+     * The graph grows to include every vertex given. Duplicate edges and edges with a vertex that
+     * is negative or past the most a graph can hold are skipped.
+     *
+     * Edges that cannot be on a cycle are inserted directly. The remainder are then added in
+     * the given order, and any edge that would complete a cycle is rejected and returned, exactly
+     * as if it had been passed to addEdge. Queries answer as if every edge had been passed to
+     * addEdge in turn; only the order a vertex's children are listed in, as by toString(), may
+     * differ, with the edges inserted directly first.
+     *
+     * @param edges - Origin and destination vertex of each edge, one after the other.
+     * @return The cycle-completing edges that were not added, as pairs in the same form.
      */
-    private void addEdge(ArrayList<Integer>[] adjTable, int v, int w) {
-        ArrayList<Integer> adjList = adjTable[v];   // Adjacency list for vertex v.
-        if (!adjList.contains(w)) {
-            adjList.add(w);
-            if (containsCycle()) {
-                // Remove offending edge from adjacency list.
-                for (int i = 0; i < adjList.size(); i++) {
-                    if (adjList.get(i) == w)
-                        adjList.remove(i);
+    public int[] addEdges(int[] edges) {
+        checkWritable();
+        if (edges.length % 2 != 0)
+            throw new IllegalArgumentException("Edge array must hold origin/destination pairs.");
+        return addEdges(edges, edges.length);
+    }
+
+    /**
+     * Add the edges in the first length ints of the array, as addEdges(int[]).
+     */
+    private int[] addEdges(int[] edges, int length) {
+        int maxVertex = -1;
+        for (int i = 0; i < length; i += 2) {
+            if (isVertex(edges[i]) && isVertex(edges[i + 1]))
+                maxVertex = Math.max(maxVertex, Math.max(edges[i], edges[i + 1]));
+        }
+        grow(maxVertex + 1);
+
+        // Stage the new, valid edges of the batch.
+        int vertices = adjTable.vertices();
+        int[] origins = new int[length / 2];
+        int[] destinations = new int[length / 2];
+        int count = 0;
+        int valid = 0;
+        LongHashSet staged = new LongHashSet(length / 2);
+        for (int i = 0; i < length; i += 2) {
+            int v = edges[i], w = edges[i + 1];
+            if (isVertex(v) && isVertex(w)) {
+                valid++;
+                long edge = edgeKey(v, w);
+                if (!this.edges.contains(edge) && staged.add(edge)) {
+                    origins[count] = v;
+                    destinations[count] = w;
+                    count++;
+                }
+            }
+        }
+
+        // Sort the graph as if the whole batch were added. Vertices left unsorted are on or
+        // downstream of a cycle, so only staged edges between two of them can close one.
+        int[] sorted = new int[vertices];
+        int[] batchOffsets = new int[vertices + 1];
+        int[] batchTargets = groupBySource(origins, destinations, count, batchOffsets);
+        int sortedCount = topologicalSort(batchOffsets, batchTargets, sorted);
+
+        boolean[] deferred = null;  // Staged edges that might close a cycle, if any.
+        if (sortedCount < vertices) {
+            boolean[] unsorted = new boolean[vertices];
+            Arrays.fill(unsorted, true);
+            for (int i = 0; i < sortedCount; i++)
+                unsorted[sorted[i]] = false;
+
+            deferred = new boolean[count];
+            int kept = 0;
+            int[] keptOrigins = new int[count];
+            int[] keptDestinations = new int[count];
+            for (int i = 0; i < count; i++) {
+                int v = origins[i], w = destinations[i];
+                if (unsorted[v] && unsorted[w])
+                    deferred[i] = true;
+                else {
+                    keptOrigins[kept] = v;
+                    keptDestinations[kept] = w;
+                    kept++;
                 }
-                System.out.println("Cycle-completing edge " + v + "->" + w + " ignored.");
             }
+
+            // The graph without the deferred edges is acyclic, so this sorts every vertex.
+            batchTargets = groupBySource(keptOrigins, keptDestinations, kept, batchOffsets);
+            topologicalSort(batchOffsets, batchTargets, sorted);
+        }
+
+        // Insert the edges that cannot be on a cycle and adopt the new order.
+        for (int i = 0; i < count; i++) {
+            if (deferred == null || !deferred[i])
+                insertEdge(origins[i], destinations[i]);
         }
-        else System.out.println("Duplicate edge " + v + "->" + w + " ignored.");
+        for (int i = 0; i < vertices; i++)
+            place(sorted[i], i);
+
+        // Add the rest one at a time, so that a rejected edge is exactly one that closes a cycle.
+        int[] rejected = new int[deferred != null ? count * 2 : 0];
+        int rejectedCount = 0;
+        for (int i = 0; deferred != null && i < count; i++) {
+            int v = origins[i], w = destinations[i];
+            if (!deferred[i])
+                continue;
+            if (reorder(v, w))
+                insertEdge(v, w);
+            else {
+                rejected[rejectedCount++] = v;
+                rejected[rejectedCount++] = w;
+            }
+        }
+
+        LcaMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.recordEdges(count - rejectedCount / 2, rejectedCount / 2, valid - count, length / 2 - valid);
+        return Arrays.copyOf(rejected, rejectedCount);
+    }
+
+    /**
+     * Record edge v->w in the adjacency, parent and edge tables, without any checks.
+     */
+    private void insertEdge(int v, int w) {
+        adjTable.add(v, w);
+        parentTable.addSorted(w, v);
+        edges.add(edgeKey(v, w));
+        ancestorIndex = null;   // Rebuilt on the next query, if enabled.
+        version++;              // Cached results from before are no longer valid.
+    }
+
+    /**
+     * Group the first count edges by origin vertex in a CSR layout.
+     *
+     * @param origins - Origin vertex of each edge.
+     * @param destinations - Destination vertex of each edge.
+     * @param count - The number of edges, from the start of the arrays, to group.
+     * @param offsets - Filled with the CSR offsets, one per vertex plus one.
+     * @return The destinations, grouped by origin.
+     */
+    private static int[] groupBySource(int[] origins, int[] destinations, int count, int[] offsets) {
+        Arrays.fill(offsets, 0);
+        for (int i = 0; i < count; i++)
+            offsets[origins[i] + 1]++;
+        for (int v = 1; v < offsets.length; v++)
+            offsets[v] += offsets[v - 1];
+
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] targets = new int[count];
+        for (int i = 0; i < count; i++)
+            targets[next[origins[i]]++] = destinations[i];
+        return targets;
+    }
+
+    /**
+     * Kahn's algorithm over the current graph plus a batch of extra edges.
+     *
+     * @param batchOffsets - CSR offsets of the extra edges.
+     * @param batchTargets - CSR destinations of the extra edges.
+     * @param sorted - Filled with the vertices in topological order.
+     * @return The number of vertices sorted. Less than the number of vertices if there is a cycle.
+     */
+    private int topologicalSort(int[] batchOffsets, int[] batchTargets, int[] sorted) {
+        int vertices = adjTable.vertices();
+        int[] inDegree = new int[vertices];
+        for (int v = 0; v < vertices; v++) {
+            inDegree[v] += parentTable.degree(v);
+            for (int i = batchOffsets[v]; i < batchOffsets[v + 1]; i++)
+                inDegree[batchTargets[i]]++;
+        }
+
+        // The sorted array doubles as the queue of vertices with no remaining parents.
+        int tail = 0;
+        for (int v = 0; v < vertices; v++) {
+            if (inDegree[v] == 0)
+                sorted[tail++] = v;
+        }
+        for (int head = 0; head < tail; head++) {
+            int v = sorted[head];
+            for (int i = 0; i < adjTable.degree(v); i++) {
+                int w = adjTable.get(v, i);
+                if (--inDegree[w] == 0)
+                    sorted[tail++] = w;
+            }
+            for (int i = batchOffsets[v]; i < batchOffsets[v + 1]; i++) {
+                int w = batchTargets[i];
+                if (--inDegree[w] == 0)
+                    sorted[tail++] = w;
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * @return The edge v->w packed into a single long.
+     */
+    private static long edgeKey(int v, int w) {
+        return ((long) v << 32) | w;
+    }
+
+    /**
+     * Update the topological order to accommodate a new edge v->w.
+     * If v already precedes w nothing changes. Otherwise, the vertices reachable from w that lie
+     * between w and v in the order are found; if v is among them the edge would complete a cycle.
+     * If not, those vertices are shifted to just after v, keeping their relative order.
+     * Only the region of the order between w and v is touched.
+     *
+     * @param v - Origin vertex.
+     * @param w - Destination vertex.
+     * @return Whether or not the edge can be added without completing a cycle.
+     */
+    private boolean reorder(int v, int w) {
+        int lower = order[w], upper = order[v];
+        if (lower > upper)
+            return true;    // Order is already consistent with v->w.
+        if (v == w)
+            return false;   // Self-loop.
+
+        // Forward DFS from w, restricted to vertices no later than v in the order.
+        int stamp = ++markStamp;
+        int top = 0;
+        marks[w] = stamp;
+        stack[top++] = w;
+        while (top > 0) {
+            int vertex = stack[--top];
+            for (int i = 0, degree = adjTable.degree(vertex); i < degree; i++) {
+                int next = adjTable.get(vertex, i);
+                if (next == v)
+                    return false;   // w reaches v, so v->w completes a cycle.
+                if (marks[next] != stamp && order[next] < upper) {
+                    marks[next] = stamp;
+                    if (top == stack.length)
+                        stack = Arrays.copyOf(stack, stack.length * 2);
+                    stack[top++] = next;
+                }
+            }
+        }
+
+        // Within [lower, upper], move the marked vertices after the unmarked ones.
+        int size = upper - lower + 1;
+        if (region.length < size)
+            region = new int[Math.max(size, region.length * 2)];
+        int unmarked = 0, marked = 0;
+        for (int i = lower; i <= upper; i++) {
+            int vertex = vertexAt[i];
+            if (marks[vertex] == stamp)
+                region[size - 1 - marked++] = vertex;   // Filled from the back, reversed.
+            else region[unmarked++] = vertex;
+        }
+        for (int i = 0; i < unmarked; i++)
+            place(region[i], lower + i);
+        for (int i = 0; i < marked; i++)
+            place(region[size - 1 - i], lower + unmarked + i);
+        return true;
+    }
+
+    /**
+     * Put a vertex at the given topological index.
+     */
+    private void place(int vertex, int index) {
+        order[vertex] = index;
+        vertexAt[index] = vertex;
+    }
+
+    /**
+     * Pack the adjacency and parent tables into a compact, read-optimised layout.
+     * Adding an edge afterwards is still allowed, but unpacks the tables again.
+     */
+    public void freeze() {
+        adjTable.freeze();
+        parentTable.freeze();
+    }
+
+    /**
+     * Answer lowestCommonAncestors queries with a precomputed index of the ancestors of each vertex,
+     * instead of searching for the ancestors of v1 on every query.
+     * The index is built on the next query, and rebuilt on the first query after any edge is added.
+     * Vertices that do not fit in the memory budget fall back to searching.
+     *
+     * @param maxBytes - The most memory the index may take. Trades memory for query speed.
+     */
+    public void enableAncestorIndex(long maxBytes) {
+        checkWritable();
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Ancestor index budget must be positive.");
+        if (maxBytes != ancestorIndexBytes)
+            ancestorIndex = null;
+        ancestorIndexBytes = maxBytes;
+    }
+
+    /**
+     * Stop using the ancestor index and release its memory.
+     */
+    public void disableAncestorIndex() {
+        checkWritable();
+        ancestorIndexBytes = 0;
+        ancestorIndex = null;
+    }
+
+    /**
+     * Cache the results of lowestCommonAncestors queries, so that pairs asked for again are
+     * answered without searching. Cached results are tagged with the number of edges in the graph,
+     * so adding an edge makes every earlier result stale. Snapshots taken afterwards share the
+     * cache, and use the results of any graph state they have in common with it.
+     *
+     * The result for (v1, v2) is not the same as for (v2, v1), so each order is cached separately.
+     *
+     * @param entries - The most results to keep.
+     * @param policy - How results are chosen for eviction.
+     */
+    public void enableQueryCache(int entries, LcaCache.Policy policy) {
+        queryCache = new LcaCache(entries, policy);
+    }
+
+    /**
+     * Stop caching query results and release the cache.
+     */
+    public void disableQueryCache() {
+        queryCache = null;
+    }
+
+    /**
+     * @return The query cache, for its hit rate and other statistics. Null if there is none.
+     */
+    public LcaCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @return The ancestor index, built if it is enabled but missing. Null if disabled.
+     */
+    private AncestorIndex ancestorIndex() {
+        if (ancestorIndex == null && ancestorIndexBytes > 0)
+            ancestorIndex = new AncestorIndex(parentTable, order, vertexAt, ancestorIndexBytes);
+        return ancestorIndex;
     }
 
     /**
      * @return Whether or not the current graph contains a cycle.
      */
     public boolean containsCycle() {
-        int[] vertices =  new int[adjTable.length];
+        int[] vertices =  new int[adjTable.vertices()];
         Arrays.fill(vertices, UNVISITED);
+        int[] stack = new int[adjTable.vertices()];
+        int[] nextChild = new int[adjTable.vertices()];
 
-        for (int v = 0; v < adjTable.length; v++) {
-            if (containsCycle(v, vertices))
+        for (int v = 0; v < adjTable.vertices(); v++) {
+            if (containsCycle(v, vertices, stack, nextChild))
                 return true;
         }
         return false;
     }
 
     /**
-     * Recursively mark all vertices in adjacency table as IN_PROGRESS.
+     * Mark all vertices reachable from a vertex as IN_PROGRESS, depth first.
      * If an IN_PROGRESS node is encountered, then a cycle exists.
+     * The search uses an explicit stack, so long paths do not overflow the call stack.
      *
-     * @param vertex - The current vertex whose adjacency table is to be searched.
+     * @param vertex - The vertex whose descendants are to be searched.
      * @param vertices - The status of each vertex in the graph. UNVISITED, IN_PROGRESS or VISITED.
+     * @param stack - Space for the current path of the search, one entry per vertex.
+     * @param nextChild - Space for the index of the next child to check on each vertex of the path.
      * @return Whether or not a cycle exists for said vertex.
      */
-    private boolean containsCycle(int vertex, int[] vertices) {
-        switch (vertices[vertex]) {
-            case IN_PROGRESS:   // A cycle exists.
-                return true;
-            case VISITED:       // This path was already checked - ignore.
-                return false;
-            case UNVISITED:
-                vertices[vertex] = IN_PROGRESS;
-        }
+    private boolean containsCycle(int vertex, int[] vertices, int[] stack, int[] nextChild) {
+        if (vertices[vertex] != UNVISITED)
+            return false;   // This path was already checked - ignore.
 
-        ArrayList<Integer> adjList = adjTable[vertex];  // Adjacency list for current vertex.
-        for (int v : adjList) { // Check each vertex in adjacency list for cycles.
-            if (containsCycle(v, vertices))
-                return true;
+        int top = 0;
+        stack[top] = vertex;
+        nextChild[top] = 0;
+        vertices[vertex] = IN_PROGRESS;
+        while (top >= 0) {
+            int current = stack[top];
+            if (nextChild[top] == adjTable.degree(current)) {
+                vertices[current] = VISITED;    // Mark permanently as visited.
+                top--;
+                continue;
+            }
+
+            int child = adjTable.get(current, nextChild[top]++);
+            switch (vertices[child]) {
+                case IN_PROGRESS:   // A cycle exists.
+                    return true;
+                case VISITED:       // This path was already checked - ignore.
+                    break;
+                case UNVISITED:
+                    vertices[child] = IN_PROGRESS;
+                    stack[++top] = child;
+                    nextChild[top] = 0;
+            }
         }
-        vertices[vertex] = VISITED;  // Mark permanently as visited.
         return false;
     }
 
@@ -99,87 +946,411 @@ public class DAG {
      * Returns the lowest common ancestor of 2 nodes: v1 and v2.
      * Returns -1 if no such nodes exist or if they are unconnected.
      *
+     * The search climbs from v2 one level at a time, reaching each vertex once, on the first
+     * level it is found, and taking the parents of each vertex in ascending order. Every vertex
+     * reached that is v1 or an ancestor of v1 is returned. Once the first one is found, no more
+     * parents are queued, but parents queued earlier on that level are still searched, so more
+     * distant ancestors can be returned too. The result depends only on the graph, not on the
+     * order its edges were added.
+     *
      * @param v1 - vertex 1.
      * @param v2 - vertex 2.
      * @return The vertex which is the closest connected vertex to both v1 and v2.
      */
     public ArrayList<Integer> lowestCommonAncestors(int v1, int v2) {
-        ArrayList<Integer> lowestCommonAncestors = new ArrayList<Integer>();
-        if (v1 == v2) {
-            lowestCommonAncestors.add(v1);
-            return lowestCommonAncestors;
+        LcaScratch scratch = SCRATCH.get();
+        if (!lowestCommonAncestors(scratch, v1, v2)) {
+            return null;
         }
-        if (v1 < 0 || v1 >= adjTable.length || v2 < 0 || v2 >= adjTable.length) {
+
+        ArrayList<Integer> lowestCommonAncestors = new ArrayList<Integer>(scratch.resultCount);
+        for (int i = 0; i < scratch.resultCount; i++)
+            lowestCommonAncestors.add(scratch.results[i]);
+        return lowestCommonAncestors;
+    }
+
+    /**
+     * Finds the lowest common ancestors of v1 and v2, as above, without allocating.
+     * The search reuses working memory kept per thread, and writes its answer into the buffer.
+     * If the buffer is too small, it is filled and the full count is still returned.
+     *
+     * @param v1 - vertex 1.
+     * @param v2 - vertex 2.
+     * @param buffer - Filled with the lowest common ancestors of v1 and v2.
+     * @return The number of lowest common ancestors. -1 if either vertex does not exist.
+     */
+    public int lowestCommonAncestors(int v1, int v2, int[] buffer) {
+        LcaScratch scratch = SCRATCH.get();
+        if (!lowestCommonAncestors(scratch, v1, v2)) {
+            return -1;
+        }
+
+        System.arraycopy(scratch.results, 0, buffer, 0, Math.min(buffer.length, scratch.resultCount));
+        return scratch.resultCount;
+    }
+
+    /**
+     * Finds the lowest common ancestors of the vertices with keys v1 and v2, as above.
+     *
+     * @param v1 - key of vertex 1.
+     * @param v2 - key of vertex 2.
+     * @return The keys of the lowest common ancestors. Null if either key has not been added.
+     * @throws IllegalArgumentException If an ancestor was added without a key.
+     */
+    public long[] lowestCommonAncestors(long v1, long v2) {
+        int vertex1 = vertex(v1), vertex2 = vertex(v2);
+        LcaScratch scratch = SCRATCH.get();
+        if (vertex1 < 0 || vertex2 < 0 || !lowestCommonAncestors(scratch, vertex1, vertex2)) {
             return null;
         }
 
-        // Reverse adjacency table to find parents of all vertices.
-        ArrayList<Integer>[] parentTable = reverse(adjTable);
+        long[] keys = new long[scratch.resultCount];
+        for (int i = 0; i < scratch.resultCount; i++)
+            keys[i] = key(scratch.results[i]);
+        return keys;
+    }
 
-        boolean[] v1Ancestors = new boolean[adjTable.length];
-        Arrays.fill(v1Ancestors, false);
+    /**
+     * Finds the lowest common ancestors of v1 and v2 into scratch.results.
+     * Callers with many threads, such as LcaServer, may pass scratch space of their own rather
+     * than keep one per thread.
+     *
+     * @return Whether or not both vertices exist.
+     */
+    boolean lowestCommonAncestors(LcaScratch scratch, int v1, int v2) {
+        if (v1 != v2 && (v1 < 0 || v1 >= adjTable.vertices() || v2 < 0 || v2 >= adjTable.vertices())) {
+            return false;
+        }
+        LcaMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        LcaCache cache = queryCache;
+        if (cache != null) {
+            Object cached = cache.get(edgeKey(v1, v2), null, null, version);
+            if (cached != LcaCache.MISS) {
+                int[] ancestors = (int[]) cached;
+                scratch.results = LcaScratch.ensure(scratch.results, ancestors.length);
+                System.arraycopy(ancestors, 0, scratch.results, 0, ancestors.length);
+                scratch.resultCount = ancestors.length;
+                if (metrics != null)
+                    metrics.recordQuery(System.nanoTime() - start, 0, 0, 0);
+                return true;
+            }
+        }
+
+        // Use the ancestor index if it covers v1, otherwise search for the ancestors of v1.
+        // An equal pair needs neither, and may be out of range of both.
+        AncestorIndex index = ancestorIndex();
+        scratch.ancestorCount = 0;
+        if (index == null || v1 == v2 || !index.covers(v1)) {
+            index = null;
+            if (v1 != v2)
+                startAncestors(scratch, v1);
+        }
+        search(scratch, v1, v2, index);
+        if (cache != null)
+            cache.put(edgeKey(v1, v2), null, null, version, Arrays.copyOf(scratch.results, scratch.resultCount));
+
+        if (metrics != null)
+            metrics.recordQuery(System.nanoTime() - start, scratch.visitCount, scratch.levelCount, scratch.ancestorCount);
+        return true;
+    }
+
+    /**
+     * Returns the lowest common ancestors of many pairs of vertices: v1s[i] and v2s[i] for each i.
+     * The result for each pair is the same as lowestCommonAncestors(v1s[i], v2s[i]).
+     *
+     * Pairs are grouped by v1, so the ancestors of each distinct v1 are only found once, and the
+     * groups are shared out between the threads of the common fork/join pool. Each thread reuses
+     * its own working memory across queries.
+     * The graph must not be changed while the batch runs.
+     *
+     * @param v1s - vertex 1 of each pair.
+     * @param v2s - vertex 2 of each pair.
+     * @return The lowest common ancestors of every pair.
+     */
+    public LcaResults lowestCommonAncestors(int[] v1s, int[] v2s) {
+        if (v1s.length != v2s.length)
+            throw new IllegalArgumentException("Vertex arrays must have the same length.");
 
-        v1Ancestors[v1] = true;
-        for (int v : parentTable[v1]) {
-            markAncestors(parentTable, v1Ancestors, v);
+        // Sort the pairs by v1, carrying the index of each pair in the low bits.
+        int pairs = v1s.length;
+        long[] sorted = new long[pairs];
+        for (int i = 0; i < pairs; i++)
+            sorted[i] = ((long) v1s[i] << 32) | i;
+        Arrays.parallelSort(sorted);
+
+        ancestorIndex();    // Build any pending index now, so the tasks only read the graph.
+        int[] counts = new int[pairs];
+        int[] starts = new int[pairs];
+        BatchTask root = new BatchTask(v1s, v2s, sorted, 0, pairs, counts, starts);
+        ForkJoinPool.commonPool().invoke(root);
+
+        // Pack the results of each task into one array, in the original order of the pairs.
+        BitSet missing = new BitSet(pairs);
+        int[] offsets = new int[pairs + 1];
+        for (int i = 0; i < pairs; i++) {
+            if (counts[i] < 0) {
+                missing.set(i);
+                counts[i] = 0;
+            }
+            offsets[i + 1] = offsets[i] + counts[i];
         }
+        int[] ancestors = new int[offsets[pairs]];
+        root.collect(sorted, counts, starts, offsets, ancestors);
+        return new LcaResults(offsets, ancestors, missing);
+    }
+
+    /**
+     * Answers a range of a sorted batch of queries, splitting it in two while it is large.
+     * Each leaf task writes its answers into its own buffer.
+     */
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        // Populate ArrayList with lowest common ancestors.
-        Queue<Integer> currentLevel = new LinkedList<Integer>();
-        Queue<Integer> nextLevel = new LinkedList<Integer>();
-        for (int v : parentTable[v2])
-            currentLevel.add(v);
+        private final int[] v1s, v2s;
+        private final long[] sorted;        // Pairs sorted by v1, with their index in the low bits.
+        private final int from, to;         // Range of sorted handled by this task.
+        private final int[] counts;         // Number of ancestors of each pair, -1 if missing.
+        private final int[] starts;         // Start of each pair's ancestors in its leaf's buffer.
 
-        while (!currentLevel.isEmpty()) {
-            while (!currentLevel.isEmpty()) {
-                int v = currentLevel.remove();
+        private BatchTask left, right;      // Subtasks, if this task was split.
+        private int[] buffer = new int[0];  // Ancestors found by this task, if a leaf.
 
-                if (v1Ancestors[v])
-                    lowestCommonAncestors.add(v);
+        private BatchTask(int[] v1s, int[] v2s, long[] sorted, int from, int to, int[] counts, int[] starts) {
+            this.v1s = v1s;
+            this.v2s = v2s;
+            this.sorted = sorted;
+            this.from = from;
+            this.to = to;
+            this.counts = counts;
+            this.starts = starts;
+        }
 
-                if (lowestCommonAncestors.isEmpty()) {
-                    for (int w : parentTable[v])
-                        nextLevel.add(w);
+        protected void compute() {
+            int middle = to - from > BATCH_SPLIT ? split() : from;
+            if (middle > from) {
+                left = new BatchTask(v1s, v2s, sorted, from, middle, counts, starts);
+                right = new BatchTask(v1s, v2s, sorted, middle, to, counts, starts);
+                invokeAll(left, right);
+                return;
+            }
+
+            LcaScratch scratch = SCRATCH.get();
+            AncestorIndex index = ancestorIndex;
+            LcaMetrics metrics = DAG.this.metrics;
+            int size = 0;
+            int markedV1 = -1;
+            for (int i = from; i < to; i++) {
+                int pair = (int) sorted[i];
+                int v1 = v1s[pair], v2 = v2s[pair];
+                if (v1 != v2 && (v1 < 0 || v1 >= adjTable.vertices() || v2 < 0 || v2 >= adjTable.vertices())) {
+                    counts[pair] = -1;
+                    continue;
+                }
+
+                // Find the ancestors of v1 once for all of its pairs, unless the index has them.
+                long start = metrics != null ? System.nanoTime() : 0;
+                boolean indexed = index != null && v1 != v2 && index.covers(v1);
+                scratch.ancestorCount = 0;
+                if (!indexed && v1 != v2 && v1 != markedV1) {
+                    startAncestors(scratch, v1);     // Marks found lazily carry over to later pairs.
+                    markedV1 = v1;
                 }
+
+                search(scratch, v1, v2, indexed ? index : null);
+                if (metrics != null)
+                    metrics.recordQuery(System.nanoTime() - start, scratch.visitCount, scratch.levelCount, scratch.ancestorCount);
+                buffer = LcaScratch.ensure(buffer, size + scratch.resultCount);
+                System.arraycopy(scratch.results, 0, buffer, size, scratch.resultCount);
+                starts[pair] = size;
+                counts[pair] = scratch.resultCount;
+                size += scratch.resultCount;
             }
-            currentLevel = nextLevel;
-            nextLevel = new LinkedList<Integer>();
         }
 
-        return lowestCommonAncestors;
+        /**
+         * @return Where to split the range so that all the pairs of each v1 stay in one task, and
+         *         its ancestors are only found once: the v1 boundary nearest after the middle, or
+         *         else before it. from if the whole range has one v1.
+         */
+        private int split() {
+            int middle = (from + to) >>> 1;
+            while (middle < to && (int) (sorted[middle] >> 32) == (int) (sorted[middle - 1] >> 32))
+                middle++;
+            if (middle < to)
+                return middle;
+
+            middle = (from + to) >>> 1;
+            while (middle > from && (int) (sorted[middle] >> 32) == (int) (sorted[middle - 1] >> 32))
+                middle--;
+            return middle;
+        }
+
+        /**
+         * Copy the answers of every leaf below this task into the packed result array.
+         */
+        private void collect(long[] sorted, int[] counts, int[] starts, int[] offsets, int[] ancestors) {
+            if (left != null) {
+                left.collect(sorted, counts, starts, offsets, ancestors);
+                right.collect(sorted, counts, starts, offsets, ancestors);
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                int pair = (int) sorted[i];
+                System.arraycopy(buffer, starts[pair], ancestors, offsets[pair], counts[pair]);
+            }
+        }
     }
 
     /**
-     * Use DFS to mark all vertices that have v1 as an ancestor.
-     *
-     * @param parentTable - The inverted adjacency table.
-     * @param v1Ancestors - Boolean array containing the ancestors of v1.
-     * @param vertex - The current vertex in the DFS.
+     * Start finding the ancestors of v1 under a new epoch: all at once, or lazily if the search is
+     * bidirectional, in which case v1 is marked and queued for markAncestorsDownTo().
      */
-    private void markAncestors(ArrayList<Integer>[] parentTable, boolean[] v1Ancestors, int vertex) {
-        v1Ancestors[vertex] = true;
-        for (int v : parentTable[vertex]) {
-            markAncestors(parentTable, v1Ancestors, v);
+    private void startAncestors(LcaScratch scratch, int v1) {
+        if (!bidirectional) {
+            markAncestors(scratch, v1);
+            return;
         }
+
+        scratch.newAncestors(adjTable.vertices());
+        scratch.ancestorMarks[v1] = scratch.ancestorEpoch;
+        scratch.heapSize = 0;
+        scratch.push(topologicalIndex(v1), v1);
+        scratch.ancestorCount++;
     }
 
     /**
-     * Reverses adjacency table to instead show the ancestor of each node rather than the descendant.
+     * Mark every ancestor of v1 whose topological index is at least limit, continuing from
+     * startAncestors(). Queued ancestors are expanded deepest first. Parents come before their
+     * children in topological order, so once every queued vertex is before limit, each ancestor
+     * at or after it has been reached. Does nothing if the ancestors were all marked up front.
+     */
+    private void markAncestorsDownTo(LcaScratch scratch, int limit) {
+        int[] marks = scratch.ancestorMarks;
+        int epoch = scratch.ancestorEpoch;
+        while (scratch.heapSize > 0 && scratch.topIndex() >= limit) {
+            int vertex = scratch.pop();
+            int degree = parentTable.degree(vertex);
+            for (int i = 0; i < degree; i++) {
+                int parent = parentTable.get(vertex, i);
+                if (marks[parent] != epoch) {
+                    marks[parent] = epoch;
+                    scratch.push(topologicalIndex(parent), parent);
+                    scratch.ancestorCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether or not v is an ancestor of v1, first marking any more that a lazy search
+     *         must find to settle it.
+     */
+    private boolean isMarkedAncestor(LcaScratch scratch, int v) {
+        if (scratch.heapSize > 0)
+            markAncestorsDownTo(scratch, topologicalIndex(v));
+        return scratch.ancestorMarks[v] == scratch.ancestorEpoch;
+    }
+
+    private int topologicalIndex(int vertex) {
+        return order != null ? order[vertex] : mappedOrder.get(vertex);
+    }
+
+    /**
+     * Mark v1 and all of its ancestors in the scratch space, under a new epoch.
+     * Uses DFS with an explicit stack, visiting each ancestor once, so it takes O(V+E) time
+     * at worst and works on arbitrarily deep graphs.
+     */
+    private void markAncestors(LcaScratch scratch, int v1) {
+        scratch.newAncestors(adjTable.vertices());
+        scratch.heapSize = 0;
+        int[] marks = scratch.ancestorMarks;
+        int epoch = scratch.ancestorEpoch;
+
+        int top = 0, marked = 1;
+        marks[v1] = epoch;
+        scratch.stack[top++] = v1;
+        while (top > 0) {
+            int vertex = scratch.stack[--top];
+            int degree = parentTable.degree(vertex);
+            scratch.stack = LcaScratch.ensure(scratch.stack, top + degree);
+            for (int i = 0; i < degree; i++) {
+                int parent = parentTable.get(vertex, i);
+                if (marks[parent] != epoch) {
+                    marks[parent] = epoch;
+                    scratch.stack[top++] = parent;
+                    marked++;
+                }
+            }
+        }
+        scratch.ancestorCount = marked;
+    }
+
+    /**
+     * Search level by level up from v2 for the nearest ancestors of v1, leaving them in
+     * scratch.results. The ancestors of v1 must be started by startAncestors(), or be in the index.
+     * Each vertex is queued at most once, on the first level it is reached.
      *
-     * @param adjTable - The adjacency table being reversed.
-     * @return The reversed adjacency table.
+     * @param index - The ancestor index, if it covers v1. Null to use the marks instead.
      */
-    private ArrayList<Integer>[] reverse(ArrayList<Integer>[] adjTable) {
-        ArrayList<Integer>[] reversed = (ArrayList<Integer>[]) new ArrayList[adjTable.length];
-        for (int i = 0; i < reversed.length; i++)
-            reversed[i] = new ArrayList<Integer>();
+    private void search(LcaScratch scratch, int v1, int v2, AncestorIndex index) {
+        scratch.resultCount = 0;
+        scratch.visitCount = 0;
+        scratch.levelCount = 0;
+        if (v1 == v2) {
+            scratch.results[scratch.resultCount++] = v1;
+            return;
+        }
+
+        scratch.newVisit(adjTable.vertices());
+        int[] visited = scratch.visitMarks;
+        int epoch = scratch.visitEpoch;
 
-        // For each v->w, add w->v to reversed adjacency table.
-        for (int v = 0; v < adjTable.length; v++) {
-            for (int w : adjTable[v])
-                addEdge(reversed, w, v);
+        int currentSize = 0;
+        int degree = parentTable.degree(v2);
+        scratch.current = LcaScratch.ensure(scratch.current, degree);
+        for (int i = 0; i < degree; i++) {
+            int parent = parentTable.get(v2, i);
+            if (visited[parent] != epoch) {
+                visited[parent] = epoch;
+                scratch.current[currentSize++] = parent;
+            }
         }
-        return reversed;
+
+        int visitCount = 0, levelCount = 0;
+        while (currentSize > 0) {
+            visitCount += currentSize;
+            levelCount++;
+            int nextSize = 0;
+            for (int j = 0; j < currentSize; j++) {
+                int v = scratch.current[j];
+                if (index != null ? index.isAncestor(v, v1) : isMarkedAncestor(scratch, v)) {
+                    scratch.results = LcaScratch.ensure(scratch.results, scratch.resultCount + 1);
+                    scratch.results[scratch.resultCount++] = v;
+                }
+
+                // Keep climbing until the first ancestor is found.
+                if (scratch.resultCount == 0) {
+                    degree = parentTable.degree(v);
+                    scratch.next = LcaScratch.ensure(scratch.next, nextSize + degree);
+                    for (int i = 0; i < degree; i++) {
+                        int parent = parentTable.get(v, i);
+                        if (visited[parent] != epoch) {
+                            visited[parent] = epoch;
+                            scratch.next[nextSize++] = parent;
+                        }
+                    }
+                }
+            }
+
+            int[] swap = scratch.current;
+            scratch.current = scratch.next;
+            scratch.next = swap;
+            currentSize = nextSize;
+        }
+        scratch.visitCount = visitCount;
+        scratch.levelCount = levelCount;
     }
 
     /**
@@ -190,20 +1361,88 @@ public class DAG {
      * 2: 6, 7, 2
      * 3:
      * etc...
+     * For large graphs, writeTo() streams the same text instead of holding it all in memory.
      */
     public String toString() {
-        return toString(adjTable);
+        StringBuilder string = new StringBuilder();
+        try {
+            writeTo(string);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // A StringBuilder does not throw.
+        }
+        return string.toString();
     }
 
-    private String toString(ArrayList<Integer>[] adjTable) {
-        String string = "";
-        for (int v = 0; v < adjTable.length; v++) {
-            string += v + ": ";
-            for (int vertex : adjTable[v])  // Add each vertex in the current adjacency list.
-                string += vertex + " ";
-            string += "\n";
+    /**
+     * Write the adjacency list of each vertex, in the form of toString().
+     * Takes linear time, and holds nothing beyond the graph, so graphs of any size can be dumped
+     * to a file. Output is not buffered here: pass a BufferedWriter or similar.
+     *
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        for (int v = 0; v < adjTable.vertices(); v++) {
+            out.append(Integer.toString(v)).append(": ");
+            for (int i = 0; i < adjTable.degree(v); i++)  // Add each vertex in the current adjacency list.
+                out.append(Integer.toString(adjTable.get(v, i))).append(' ');
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Write the graph in GraphViz DOT form, as a digraph. Vertices added by an external key are
+     * labelled with it. Output is as writeTo().
+     *
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
+     */
+    public void writeDot(Appendable out) throws IOException {
+        out.append("digraph {\n");
+        for (int v = 0; v < adjTable.vertices(); v++) {
+            if (hasKey(v))
+                out.append("  ").append(Integer.toString(v)).append(" [label=\"").append(Long.toString(keyOf[v])).append("\"];\n");
+            else if (adjTable.degree(v) == 0)
+                out.append("  ").append(Integer.toString(v)).append(";\n");    // So vertices with no edges still appear.
+            for (int i = 0; i < adjTable.degree(v); i++)
+                out.append("  ").append(Integer.toString(v)).append(" -> ").append(Integer.toString(adjTable.get(v, i))).append(";\n");
+        }
+        out.append("}\n");
+    }
+
+    /**
+     * Write each edge as a "v w" line, which readEdgeList() reads back. Vertices with no edges
+     * past the last one used are not recorded. Output is as writeTo().
+     *
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
+     */
+    public void writeEdgeList(Appendable out) throws IOException {
+        for (int v = 0; v < adjTable.vertices(); v++) {
+            for (int i = 0; i < adjTable.degree(v); i++)
+                out.append(Integer.toString(v)).append(' ').append(Integer.toString(adjTable.get(v, i))).append('\n');
+        }
+    }
+
+    /**
+     * Write each edge as a pair of little-endian 32-bit ints, which readBinaryEdgeList() reads
+     * back. Edges are written through a fixed 64KB chunk, so out need not be buffered.
+     *
+     * @param out - Where to write.
+     * @throws IOException If out cannot be written.
+     */
+    public void writeBinaryEdgeList(OutputStream out) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int v = 0; v < adjTable.vertices(); v++) {
+            for (int i = 0; i < adjTable.degree(v); i++) {
+                if (chunk.remaining() < 8) {
+                    out.write(chunk.array(), 0, chunk.position());
+                    chunk.clear();
+                }
+                chunk.putInt(v).putInt(adjTable.get(v, i));
+            }
         }
-        return string;
+        out.write(chunk.array(), 0, chunk.position());
     }
 
-}
\ No newline at end of file
+}
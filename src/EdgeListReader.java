@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams an edge list from a file into a growable int array of origin/destination pairs.
+ * The file is read through a large direct buffer and numbers are parsed straight from its
+ * bytes, so no Strings or boxed values are created per edge.
+ */
+class EdgeListReader {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private int[] edges = new int[1024];    // Origin and destination of each edge read, one after the other.
+    private int length;                     // Number of ints of edges in use.
+    private int maxVertex = -1;             // Largest vertex read.
+
+    /**
+     * @return The edges read, as pairs. Only the first length() ints are in use.
+     */
+    int[] edges() {
+        return edges;
+    }
+
+    /**
+     * @return The number of ints of edges() in use, twice the number of edges.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * @return The largest vertex read, or -1 if none.
+     */
+    int maxVertex() {
+        return maxVertex;
+    }
+
+    /**
+     * Read a text edge list of non-negative "v w" pairs, one per line.
+     * Numbers may be separated by any whitespace or commas. Blank lines and lines starting
+     * with '#' or '%' are skipped.
+     *
+     * @param file - The file to read.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    void readText(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long line = 1;
+            long value = -1;            // Number being parsed, -1 if between numbers.
+            int column = 0;             // Numbers read so far on this line.
+            boolean comment = false;
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        if (value >= 0)
+                            column = add(value, column, line);
+                        if (column == 1)
+                            throw new IOException("Line " + line + " of " + file + " has no destination vertex.");
+                        value = -1;
+                        column = 0;
+                        comment = false;
+                        line++;
+                    }
+                    else if (comment)
+                        continue;
+                    else if (b >= '0' && b <= '9') {
+                        value = value < 0 ? b - '0' : value * 10 + (b - '0');
+                        if (value > Integer.MAX_VALUE)
+                            throw new IOException("Vertex on line " + line + " of " + file + " is too large.");
+                    }
+                    else if (b == ' ' || b == '\t' || b == ',' || b == '\r') {
+                        if (value >= 0) {
+                            column = add(value, column, line);
+                            value = -1;
+                        }
+                    }
+                    else if ((b == '#' || b == '%') && column == 0 && value < 0)
+                        comment = true;
+                    else throw new IOException("Unexpected character '" + (char) b + "' on line " + line + " of " + file + ".");
+                }
+                buffer.clear();
+            }
+            if (value >= 0)
+                column = add(value, column, line);
+            if (column == 1)
+                throw new IOException("Line " + line + " of " + file + " has no destination vertex.");
+        }
+    }
+
+    /**
+     * Read a binary edge list of little-endian 32-bit origin/destination pairs.
+     *
+     * @param file - The file to read.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    void readBinary(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() % 8 != 0)
+                throw new IOException(file + " does not hold whole 8-byte edges.");
+            ensure(channel.size() / 4);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int vertex = buffer.getInt();
+                    if (vertex < 0)
+                        throw new IOException("Negative vertex in edge " + length / 2 + " of " + file + ".");
+                    edges[length++] = vertex;
+                    maxVertex = Math.max(maxVertex, vertex);
+                }
+                buffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Append a vertex parsed from a line of a text edge list.
+     *
+     * @param vertex - The vertex.
+     * @param column - The number of vertices already read from the line.
+     * @param line - The line number, for errors.
+     * @return The number of vertices read from the line, including this one.
+     */
+    private int add(long vertex, int column, long line) throws IOException {
+        if (column == 2)
+            throw new IOException("Line " + line + " has more than two vertices.");
+        ensure(length + 1L);
+        edges[length++] = (int) vertex;
+        maxVertex = Math.max(maxVertex, (int) vertex);
+        return column + 1;
+    }
+
+    /**
+     * Grow edges, by doubling, to hold at least the given number of ints.
+     */
+    private void ensure(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE - 8)
+            throw new IOException("Edge list is too large to load.");
+        if (capacity > edges.length)
+            edges = Arrays.copyOf(edges, (int) Math.max(capacity, Math.min(edges.length * 2L, Integer.MAX_VALUE - 8)));
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * A read-only search tree laid out in an array in Eytzinger order: the root at position 1, and
+ * the children of position i at 2i and 2i + 1, as in a binary heap. A lookup walks down the array
+ * instead of chasing pointers to separate nodes, and the first levels of the tree share a few
+ * cache lines, so large tables miss the cache far less often than a BinarySearchTree does.
+ *
+ * The descent does not branch on the comparison: it always goes down to a leaf, stepping to 2i or
+ * 2i + 1, and only then finds the match, so there are no mispredicted branches on the way.
+ *
+ * The tree is the complete binary tree over its keys, so lowest common ancestors are those of
+ * that shape, which may differ from those of the tree it was compiled from.
+ * IntEytzingerTree and LongEytzingerTree are the same table over primitive keys.
+ */
+public class EytzingerTree<Key extends Comparable<Key>, Value> {
+    static final int MAX_SIZE = (1 << 30) - 1;  //Largest size whose positions can be doubled without overflowing.
+
+    private final Object[] keys;    //Keys in Eytzinger order, from position 1.
+    private final Object[] values;  //Value of the key at each position.
+    private final int size;
+
+    /**
+     * Constructor.
+     * @param keys - The keys, in strictly ascending order.
+     * @param values - The value of each key.
+     */
+    public EytzingerTree(Key[] keys, Value[] values) {
+        checkSize(keys.length, values.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null || values[i] == null) {
+                throw new IllegalArgumentException("Keys and values must not be null.");
+            }
+            if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0) {
+                throw new IllegalArgumentException("Keys must be in strictly ascending order.");
+            }
+        }
+
+        size = keys.length;
+        this.keys = new Object[size + 1];
+        this.values = new Object[size + 1];
+        for (int i = 0, position = first(size); i < size; i++, position = next(position, size)) {
+            this.keys[position] = keys[i];
+            this.values[position] = values[i];
+        }
+    }
+
+    /**
+     * @return The number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Search for a key, and then return its value.
+     *
+     * @param key - The key being searched for.
+     * @return      The value of the key, if found. Null if not found.
+     */
+    @SuppressWarnings("unchecked")
+    public Value getValue(Key key) {
+        return (Value) values[find(key)];
+    }
+
+    /**
+     * Returns whether or not a given key exists in the tree.
+     * @param key - The key being searched for.
+     * @return Whether or not the key exists.
+     */
+    public boolean contains(Key key) {
+        return find(key) != 0;
+    }
+
+    /**
+     * Return the lowest parent that two keys have in common, in the complete tree.
+     * Each key is found with one descent, and their ancestor is then worked out from the two
+     * positions alone.
+     *
+     * @param key1 - The first key.
+     * @param key2 - The second key.
+     * @return       The lowest common ancestor. Null if either key is not in the tree.
+     */
+    @SuppressWarnings("unchecked")
+    public Key lowestCommonAncestor(Key key1, Key key2) {
+        int position1 = find(key1), position2 = find(key2);
+        if (position1 == 0 || position2 == 0) {
+            return null;
+        }
+        return (Key) keys[ancestor(position1, position2)];
+    }
+
+    /**
+     * @return The position of a key, or 0 if it is not in the tree.
+     */
+    @SuppressWarnings("unchecked")
+    private int find(Key key) {
+        if (key == null) {
+            return 0;
+        }
+
+        int position = 1;
+        while (position <= size) {
+            position = 2 * position + (((Key) keys[position]).compareTo(key) < 0 ? 1 : 0);
+        }
+        position = lowerBound(position);
+        return position != 0 && key.compareTo((Key) keys[position]) == 0 ? position : 0;
+    }
+
+    /**
+     * @return The position of the first key in order, the leftmost of the tree.
+     */
+    static int first(int size) {
+        return Integer.highestOneBit(size);
+    }
+
+    /**
+     * @return The position that follows another in key order. 0 after the last.
+     */
+    static int next(int position, int size) {
+        if (2 * position + 1 <= size) {
+            //Leftmost position of the right subtree.
+            position = 2 * position + 1;
+            while (2 * position <= size) {
+                position *= 2;
+            }
+            return position;
+        }
+        //Climb while coming from a right child, and then once more.
+        return lowerBound(position);
+    }
+
+    /**
+     * Turn the position a descent ran off the tree at into the position of the smallest key that
+     * is not less than the one searched for. That is the position the last step to the left was
+     * taken from, so the trailing steps to the right are dropped, and then that step. 0 if every
+     * key was less.
+     */
+    static int lowerBound(int position) {
+        return position >>> (Integer.numberOfTrailingZeros(~position) + 1);
+    }
+
+    /**
+     * @return The lowest common ancestor of two positions. The deeper one is raised to the depth
+     *         of the other, and then both are raised past the highest bit in which they differ.
+     */
+    static int ancestor(int position1, int position2) {
+        int depth1 = 31 - Integer.numberOfLeadingZeros(position1);
+        int depth2 = 31 - Integer.numberOfLeadingZeros(position2);
+        position1 >>>= Math.max(0, depth1 - depth2);
+        position2 >>>= Math.max(0, depth2 - depth1);
+        return position1 >>> (32 - Integer.numberOfLeadingZeros(position1 ^ position2));
+    }
+
+    static void checkSize(int keys, int values) {
+        if (keys != values) {
+            throw new IllegalArgumentException("Key and value arrays must have the same length.");
+        }
+        if (keys > MAX_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_SIZE + " keys are supported.");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, with buckets on a log-linear scale as in HdrHistogram.
+ * Values below 64 have a bucket each. Above that, each power of two is split into 32 buckets, so
+ * any value is reported within about 3% of its true size. Recording is lock-free and allocation
+ * free, and the histogram has a fixed size whatever the range of values.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;                      // 32 buckets per power of two.
+    private static final int LINEAR = 2 << SUB_BITS;            // Values below this have a bucket each.
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS - 1) * (1 << SUB_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * @param nanos - A latency to record. Negative values are recorded as 0.
+     */
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * @param percentile - The percentile wanted, from 0 to 100.
+     * @return The smallest bucket bound that at least that percentage of values fall under.
+     *         0 if nothing has been recorded.
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return The upper bound of the highest bucket with a value in it. 0 if nothing has been recorded.
+     */
+    long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0)
+                return upperBound(i);
+        }
+        return 0;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+    }
+
+    /**
+     * The bucket of a value: its top SUB_BITS + 1 bits, and the position of the highest of them.
+     */
+    static int bucket(long value) {
+        if (value < LINEAR)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;     // At least 1.
+        int sub = (int) (value >>> exponent);                                  // LINEAR / 2 to LINEAR - 1.
+        return LINEAR + (exponent - 1) * (1 << SUB_BITS) + sub - (LINEAR >> 1);
+    }
+
+    /**
+     * The largest value that falls in a bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR)
+            return bucket;
+        int exponent = (bucket - LINEAR) / (1 << SUB_BITS) + 1;
+        long sub = (bucket - LINEAR) % (1 << SUB_BITS) + (LINEAR >> 1);
+        return ((sub + 1) << exponent) - 1;
+    }
+}
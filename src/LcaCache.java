@@ -0,0 +1,402 @@
+/**
+ * A bounded cache of lowest common ancestor results, for query traffic where a few pairs are
+ * asked for over and over.
+ *
+ * Entries are looked up by a pair packed into a long, and tagged with the version of the graph or
+ * tree they were computed on. An entry from another version is never returned, so changing the
+ * structure invalidates the cache without clearing it. An entry is only replaced by a result for
+ * a newer version, so readers of an older snapshot do not evict the entries of the latest one.
+ *
+ * Two eviction policies are offered. LRU evicts the least recently used entry. TINY_LFU is
+ * W-TinyLFU: new entries enter a small LRU window, and an entry leaving the window only displaces
+ * the least recently used entry of the main region if it has been asked for more often, as
+ * estimated by a count-min sketch that halves its counts periodically. This keeps a burst of
+ * one-off queries from flushing out the hot pairs.
+ *
+ * The cache is split into segments by key, each with its own lock, so it can be shared by many
+ * query threads.
+ */
+public class LcaCache {
+    /**
+     * How entries are chosen for eviction.
+     */
+    public enum Policy {
+        LRU, TINY_LFU
+    }
+
+    static final Object MISS = new Object();        // Returned by get() when there is no valid entry.
+
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final int capacity;
+    private final Policy policy;
+
+    /**
+     * Constructor.
+     * @param capacity - The most entries the cache may hold.
+     * @param policy - How entries are chosen for eviction.
+     */
+    public LcaCache(int capacity, Policy policy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be positive.");
+        this.capacity = capacity;
+        this.policy = policy;
+
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, capacity / MIN_SEGMENT_CAPACITY)));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++)
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0), policy);
+        segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * @return The most entries the cache may hold.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return How entries are chosen for eviction.
+     */
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Look up a result.
+     *
+     * @param key - The pair, packed into a long.
+     * @param first - The first element of the pair if it is an object, to guard against two pairs
+     *                packing to the same key. Null if the key is exact.
+     * @param second - The second element of the pair, as first.
+     * @param version - The version of the structure being queried.
+     * @return The result, or MISS if there is no entry for the pair at this version.
+     */
+    Object get(long key, Object first, Object second, long version) {
+        long hash = mix(key);
+        return segment(hash).get(key, hash, first, second, version);
+    }
+
+    /**
+     * Store a result, evicting an entry if the cache is full.
+     *
+     * @param key - The pair, packed into a long.
+     * @param first - As for get().
+     * @param second - As for get().
+     * @param version - The version of the structure the result was computed on.
+     * @param value - The result.
+     */
+    void put(long key, Object first, Object second, long version, Object value) {
+        long hash = mix(key);
+        segment(hash).put(key, hash, first, second, version, value);
+    }
+
+    /**
+     * @return The number of lookups that found a valid entry.
+     */
+    public long hits() {
+        long hits = 0;
+        for (Segment segment : segments)
+            hits += segment.hits();
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups that did not.
+     */
+    public long misses() {
+        long misses = 0;
+        for (Segment segment : segments)
+            misses += segment.misses();
+        return misses;
+    }
+
+    /**
+     * @return The number of entries evicted to make room for others.
+     */
+    public long evictions() {
+        long evictions = 0;
+        for (Segment segment : segments)
+            evictions += segment.evictions();
+        return evictions;
+    }
+
+    /**
+     * @return The fraction of lookups that found a valid entry. 0 if there have been none.
+     */
+    public double hitRate() {
+        long hits = hits(), lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return The number of entries held, including any from older versions not yet dropped.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    /**
+     * Drop every entry. The statistics are kept.
+     */
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    private Segment segment(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    /**
+     * Spread the bits of a key (the finaliser of MurmurHash3).
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * One lock's worth of the cache. Entries live in slots of parallel arrays, linked into
+     * recency lists that run from most to least recently used.
+     */
+    private static class Segment {
+        private static final int WINDOW = 0, MAIN = 1;      // Regions, and their recency lists.
+        private static final int NONE = -1;
+
+        private final int capacity;
+        private final int windowCapacity;       // Entries the window may hold. Under LRU, all of them.
+        private final boolean tinyLfu;
+
+        private final LongIntHashMap slotOf;    // Slot of each key.
+        private final long[] keys;
+        private final Object[] firsts, seconds;
+        private final long[] versions;
+        private final Object[] values;
+        private final int[] previous, next;     // Neighbours in the slot's recency list.
+        private final byte[] regions;           // Region of each slot.
+        private final int[] heads = {NONE, NONE}, tails = {NONE, NONE}, sizes = new int[2];
+        private final int[] free;               // Stack of unused slots.
+        private int freeCount;
+
+        private final FrequencySketch sketch;   // Estimated popularity of keys. Null under LRU.
+
+        private long hits, misses, evictions;
+
+        private Segment(int capacity, Policy policy) {
+            this.capacity = capacity;
+            tinyLfu = policy == Policy.TINY_LFU && capacity > 1;
+            windowCapacity = tinyLfu ? Math.max(1, capacity / 100) : capacity;
+
+            slotOf = new LongIntHashMap(capacity);
+            keys = new long[capacity];
+            firsts = new Object[capacity];
+            seconds = new Object[capacity];
+            versions = new long[capacity];
+            values = new Object[capacity];
+            previous = new int[capacity];
+            next = new int[capacity];
+            regions = new byte[capacity];
+            free = new int[capacity];
+            for (int i = 0; i < capacity; i++)
+                free[i] = capacity - 1 - i;
+            freeCount = capacity;
+            sketch = tinyLfu ? new FrequencySketch(capacity) : null;
+        }
+
+        private synchronized Object get(long key, long hash, Object first, Object second, long version) {
+            if (sketch != null)
+                sketch.increment(hash);
+            int slot = slotOf.get(key);
+            if (slot < 0 || !matches(slot, first, second)) {
+                misses++;
+                return MISS;
+            }
+            if (versions[slot] != version) {
+                // Computed on another version. Left in place, as readers of an older snapshot and
+                // of the latest one may both be asking, and put() replaces it with a newer result.
+                misses++;
+                return MISS;
+            }
+
+            hits++;
+            unlink(slot);
+            pushFront(slot, regions[slot]);
+            return values[slot];
+        }
+
+        private synchronized void put(long key, long hash, Object first, Object second, long version, Object value) {
+            int slot = slotOf.get(key);
+            if (slot >= 0 && versions[slot] > version && matches(slot, first, second))
+                return;     // Keep the result for the newer version.
+            if (slot >= 0) {
+                unlink(slot);
+                pushFront(slot, regions[slot]);
+            }
+            else {
+                if (freeCount == 0) {
+                    if (tinyLfu)
+                        admit(tails[WINDOW]);   // Both regions are full, so this frees a slot.
+                    else {
+                        remove(tails[WINDOW]);
+                        evictions++;
+                    }
+                }
+                slot = free[--freeCount];
+                slotOf.put(key, slot);
+                keys[slot] = key;
+                pushFront(slot, WINDOW);
+            }
+            firsts[slot] = first;
+            seconds[slot] = second;
+            versions[slot] = version;
+            values[slot] = value;
+
+            if (tinyLfu && sizes[WINDOW] > windowCapacity)
+                admit(tails[WINDOW]);
+        }
+
+        /**
+         * Move the entry leaving the window into the main region, if there is room, or if it is
+         * more popular than the entry it would displace. Otherwise evict it.
+         */
+        private void admit(int candidate) {
+            if (sizes[MAIN] < capacity - windowCapacity) {
+                unlink(candidate);
+                pushFront(candidate, MAIN);
+                return;
+            }
+
+            int victim = tails[MAIN];
+            if (sketch.frequency(mix(keys[candidate])) > sketch.frequency(mix(keys[victim]))) {
+                remove(victim);
+                unlink(candidate);
+                pushFront(candidate, MAIN);
+            }
+            else remove(candidate);
+            evictions++;
+        }
+
+        private boolean matches(int slot, Object first, Object second) {
+            if (first == null)
+                return true;
+            return first.equals(firsts[slot]) && second.equals(seconds[slot]);
+        }
+
+        private void remove(int slot) {
+            unlink(slot);
+            slotOf.remove(keys[slot]);
+            firsts[slot] = null;
+            seconds[slot] = null;
+            values[slot] = null;
+            free[freeCount++] = slot;
+        }
+
+        private void pushFront(int slot, int region) {
+            regions[slot] = (byte) region;
+            previous[slot] = NONE;
+            next[slot] = heads[region];
+            if (heads[region] != NONE)
+                previous[heads[region]] = slot;
+            else tails[region] = slot;
+            heads[region] = slot;
+            sizes[region]++;
+        }
+
+        private void unlink(int slot) {
+            int region = regions[slot];
+            if (previous[slot] != NONE)
+                next[previous[slot]] = next[slot];
+            else heads[region] = next[slot];
+            if (next[slot] != NONE)
+                previous[next[slot]] = previous[slot];
+            else tails[region] = previous[slot];
+            sizes[region]--;
+        }
+
+        private synchronized long hits() {
+            return hits;
+        }
+
+        private synchronized long misses() {
+            return misses;
+        }
+
+        private synchronized long evictions() {
+            return evictions;
+        }
+
+        private synchronized int size() {
+            return capacity - freeCount;
+        }
+
+        private synchronized void clear() {
+            while (heads[WINDOW] != NONE)
+                remove(heads[WINDOW]);
+            while (heads[MAIN] != NONE)
+                remove(heads[MAIN]);
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters estimating how often each key has been seen.
+     * Once it has counted ten times as many accesses as the cache holds, every counter is halved,
+     * so popularity fades and the cache can adapt when the hot pairs change.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+
+        private final byte[] counters;
+        private final int mask;
+        private final int resetAfter;
+        private int additions;
+
+        private FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+            counters = new byte[width * DEPTH];
+            mask = width - 1;
+            resetAfter = Math.max(16, capacity * 10);
+        }
+
+        private void increment(long hash) {
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(hash, row);
+                if (counters[i] < MAX_COUNT)
+                    counters[i]++;
+            }
+            if (++additions >= resetAfter) {
+                for (int i = 0; i < counters.length; i++)
+                    counters[i] >>= 1;
+                additions /= 2;
+            }
+        }
+
+        private int frequency(long hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++)
+                frequency = Math.min(frequency, counters[index(hash, row)]);
+            return frequency;
+        }
+
+        /**
+         * The counter for a key in one row, taken from a different 16 bits of its hash per row.
+         */
+        private int index(long hash, int row) {
+            int bits = (int) (hash >>> (row * 16)) & 0xffff;
+            bits *= 0x9e3779b9;
+            return row * (mask + 1) + ((bits ^ (bits >>> 16)) & mask);
+        }
+    }
+}
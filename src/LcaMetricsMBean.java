@@ -0,0 +1,69 @@
+/**
+ * The management interface of LcaMetrics, as seen through JMX.
+ */
+public interface LcaMetricsMBean {
+    /**
+     * @return The number of lowest common ancestor queries answered.
+     */
+    long getQueries();
+
+    /**
+     * @return The total number of vertices queued by the level-by-level searches of all queries.
+     */
+    long getVerticesVisited();
+
+    /**
+     * @return The total number of levels searched by all queries.
+     */
+    long getBfsLevels();
+
+    /**
+     * @return The total size of the ancestor sets marked for v1, over all queries that marked one.
+     */
+    long getAncestorsMarked();
+
+    /**
+     * @return The number of edges added.
+     */
+    long getEdgesAdded();
+
+    /**
+     * @return The number of edges rejected because they would complete a cycle.
+     */
+    long getRejectedCycleEdges();
+
+    /**
+     * @return The number of edges skipped because they already exist.
+     */
+    long getDuplicateEdges();
+
+    /**
+     * @return The number of edges skipped because they have a negative vertex.
+     */
+    long getIgnoredEdges();
+
+    /**
+     * @return The median query latency in nanoseconds.
+     */
+    long getLatencyMedianNanos();
+
+    /**
+     * @return The 99th percentile query latency in nanoseconds.
+     */
+    long getLatency99thPercentileNanos();
+
+    /**
+     * @return The 99.9th percentile query latency in nanoseconds.
+     */
+    long getLatency999thPercentileNanos();
+
+    /**
+     * @return The highest query latency in nanoseconds.
+     */
+    long getLatencyMaxNanos();
+
+    /**
+     * Set every counter and the latency histogram back to zero.
+     */
+    void reset();
+}
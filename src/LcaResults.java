@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * The lowest common ancestors of a batch of vertex pairs, packed into primitive arrays.
+ * The ancestors of the i-th pair are ancestors[offsets[i]] to ancestors[offsets[i + 1] - 1].
+ */
+public class LcaResults {
+    private final int[] offsets;        // Start of each pair's ancestors, plus one past the end.
+    private final int[] ancestors;      // The ancestors of every pair, back to back.
+    private final BitSet missing;       // Pairs with a vertex that is not in the graph.
+
+    LcaResults(int[] offsets, int[] ancestors, BitSet missing) {
+        this.offsets = offsets;
+        this.ancestors = ancestors;
+        this.missing = missing;
+    }
+
+    /**
+     * @return The number of pairs.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @param pair - Index of the pair.
+     * @return Whether or not both vertices of the pair exist in the graph.
+     */
+    public boolean exists(int pair) {
+        return !missing.get(pair);
+    }
+
+    /**
+     * @param pair - Index of the pair.
+     * @return The number of lowest common ancestors of the pair.
+     */
+    public int count(int pair) {
+        return offsets[pair + 1] - offsets[pair];
+    }
+
+    /**
+     * @param pair - Index of the pair.
+     * @param i - Index into the ancestors of the pair.
+     * @return The i-th lowest common ancestor of the pair.
+     */
+    public int get(int pair, int i) {
+        return ancestors[offsets[pair] + i];
+    }
+
+    /**
+     * @param pair - Index of the pair.
+     * @return The ancestors of the pair in the form DAG.lowestCommonAncestors returns them.
+     *         Null if a vertex of the pair does not exist.
+     */
+    public ArrayList<Integer> toList(int pair) {
+        if (missing.get(pair))
+            return null;
+        ArrayList<Integer> list = new ArrayList<Integer>(count(pair));
+        for (int i = offsets[pair]; i < offsets[pair + 1]; i++)
+            list.add(ancestors[i]);
+        return list;
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+
+/**
+ * Working memory for lowest common ancestor searches, reused from one query to the next.
+ *
+ * Vertices are marked by writing the current epoch rather than true, so starting a new search
+ * only increments the epoch instead of clearing an array the size of the graph.
+ */
+class LcaScratch {
+    int[] ancestorMarks = new int[0];   // ancestorMarks[v] == ancestorEpoch if v is an ancestor of v1.
+    int ancestorEpoch;
+    int[] visitMarks = new int[0];      // visitMarks[v] == visitEpoch if v was queued by this search.
+    int visitEpoch;
+
+    int[] stack = new int[16];          // Vertices still to be expanded while marking ancestors.
+    long[] heap = new long[16];         // Ancestors a lazy search has still to expand: a max-heap of
+    int heapSize;                       // topological index << 32 | vertex, so the deepest is first.
+    int[] current = new int[16];        // The level of the search being scanned.
+    int[] next = new int[16];           // The level after it.
+
+    int[] results = new int[16];        // Ancestors found by the last search.
+    int resultCount;
+
+    int ancestorCount;                  // Ancestors of v1 marked by the last query, including v1.
+    int visitCount;                     // Vertices queued by the last search.
+    int levelCount;                     // Levels scanned by the last search.
+
+    /**
+     * Start marking the ancestors of a new v1, in a graph of the given size.
+     *
+     * @param vertices - The number of vertices in the graph.
+     */
+    void newAncestors(int vertices) {
+        if (ancestorMarks.length < vertices || ancestorEpoch == Integer.MAX_VALUE) {
+            ancestorMarks = new int[Math.max(vertices, ancestorMarks.length)];
+            ancestorEpoch = 0;
+        }
+        ancestorEpoch++;
+    }
+
+    /**
+     * Start a new search up from v2, in a graph of the given size.
+     *
+     * @param vertices - The number of vertices in the graph.
+     */
+    void newVisit(int vertices) {
+        if (visitMarks.length < vertices || visitEpoch == Integer.MAX_VALUE) {
+            visitMarks = new int[Math.max(vertices, visitMarks.length)];
+            visitEpoch = 0;
+        }
+        visitEpoch++;
+    }
+
+    /**
+     * Queue a vertex on the heap.
+     *
+     * @param index - The topological index of the vertex.
+     * @param vertex - The vertex.
+     */
+    void push(int index, int vertex) {
+        if (heapSize == heap.length)
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        long entry = (long) index << 32 | vertex;
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) >>> 1] < entry) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * @return The topological index of the deepest queued vertex. The heap must not be empty.
+     */
+    int topIndex() {
+        return (int) (heap[0] >>> 32);
+    }
+
+    /**
+     * Remove the deepest queued vertex from the heap, and return it.
+     */
+    int pop() {
+        int vertex = (int) heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && heap[child + 1] > heap[child])
+                child++;
+            if (heap[child] <= last)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return vertex;
+    }
+
+    /**
+     * @return The array, grown to hold at least size entries.
+     */
+    static int[] ensure(int[] array, int size) {
+        if (size <= array.length)
+            return array;
+        return Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+}
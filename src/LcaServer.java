@@ -0,0 +1,412 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A small TCP server answering lowest common ancestor and lookup queries against a published
+ * DAG and a published tree, so the structures can be queried from other processes.
+ *
+ * Each connection is served by its own thread, reading and writing its channel in blocking mode:
+ * a virtual thread where the JVM has them (Java 21 and later), otherwise a pooled platform thread.
+ * Publishing swaps in a read-only snapshot, so queries never wait on updates and always see one
+ * consistent version of each structure. Graph queries borrow working memory from a shared pool
+ * while a request is answered, rather than keeping it per thread, as there may be thousands of
+ * connection threads and the working memory grows with the graph.
+ *
+ * The protocol is length-prefixed and big-endian. Each request frame is
+ *
+ *     int length       - Number of bytes that follow.
+ *     int id           - Echoed in the response, so clients can match pipelined requests.
+ *     byte op          - One of the ops below.
+ *     int count        - Number of items in the batch.
+ *     ...              - count items, as given for the op.
+ *
+ * and each response frame is
+ *
+ *     int length, int id, byte status  - OK, or ERROR followed by a UTF-8 message.
+ *     ...                              - One result per item, as given for the op.
+ *
+ * DAG_LCA       - Items are int v1, int v2. Results are int n, then n vertices, or n = -1 if
+ *                 either vertex does not exist.
+ * DAG_KEY_LCA   - As DAG_LCA, over external long keys.
+ * TREE_GET      - Items are long key. Results are int n, then the n UTF-8 bytes of the value's
+ *                 toString(), or n = -1 if the key is not in the tree.
+ * TREE_LCA      - Items are long key1, long key2. Results are byte found, then long ancestor,
+ *                 which is 0 if either key is not in the tree. Ancestors are those of the tree
+ *                 as published: the complete tree of a LongEytzingerTree, or the same shape as
+ *                 a BinarySearchTree.
+ *
+ * A client may send any number of requests without waiting. They are answered in order, and
+ * responses to requests that arrived together are written together. A frame that cannot be
+ * parsed closes the connection; a request that cannot be answered gets an ERROR response.
+ */
+public class LcaServer implements Closeable {
+    public static final byte DAG_LCA = 1, DAG_KEY_LCA = 2, TREE_GET = 3, TREE_LCA = 4;
+    public static final byte OK = 0, ERROR = 1;
+
+    private static final int MAX_FRAME = 1 << 24;       // Largest request accepted, in bytes.
+    private static final int BUFFER_SIZE = 1 << 12;     // Initial size of each connection's buffers, grown as needed.
+
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final Set<SocketChannel> open = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<LcaScratch> scratch = new ConcurrentLinkedQueue<LcaScratch>();
+
+    private volatile DAG graph;                         // Snapshot being served. Null if none.
+    private volatile Object tree;                       // LongEytzingerTree or frozen BinarySearchTree<Long, ?> being served. Null if none.
+
+    /**
+     * Constructor. Binds the address and starts accepting connections.
+     * @param address - The address to listen on. Port 0 picks a free port.
+     * @throws IOException If the address cannot be bound.
+     */
+    public LcaServer(InetSocketAddress address) throws IOException {
+        server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(address, 4096);
+        connections = newConnectionExecutor();
+        Thread acceptor = new Thread(this::accept, "lca-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Serve a read-only snapshot of the graph from now on. Later changes to the graph are not
+     * seen until it is published again.
+     *
+     * @param dag - The graph.
+     */
+    public void publish(DAG dag) {
+        graph = dag.snapshot();
+    }
+
+    /**
+     * Serve the latest published snapshot of a concurrent graph, as publish(DAG).
+     *
+     * @param dag - The graph.
+     */
+    public void publish(ConcurrentDAG dag) {
+        graph = dag.snapshot();
+    }
+
+    /**
+     * Serve a tree from now on. The tree is read-only, so it is served as it is.
+     *
+     * @param tree - The tree.
+     */
+    public void publish(LongEytzingerTree<?> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Serve a frozen copy of a tree from now on, so queries see its shape and are answered as
+     * tree.lowestCommonAncestor() would. Later changes to the tree are not seen until it is
+     * published again. For large read-only tables, publishing a LongEytzingerTree compiled from
+     * the tree looks keys up faster, but answers lowest common ancestors in the complete tree.
+     *
+     * @param tree - The tree.
+     */
+    public void publish(BinarySearchTree<Long, ?> tree) {
+        this.tree = tree.frozenCopy();
+    }
+
+    /**
+     * Stop accepting connections, and close the open ones.
+     */
+    public void close() throws IOException {
+        server.close();
+        for (SocketChannel channel : open)
+            closeQuietly(channel);
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (server.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                return;     // Closed.
+            }
+            open.add(channel);
+            try {
+                connections.execute(() -> serve(channel));
+            } catch (RuntimeException e) {
+                open.remove(channel);   // Rejected while closing.
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Answer the requests on one connection until the client closes it.
+     * Every complete frame in the input is answered before the responses are written, so
+     * pipelined requests are answered with one write.
+     */
+    private void serve(SocketChannel channel) {
+        Connection connection = new Connection();
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            while (channel.read(connection.in) >= 0) {
+                connection.in.flip();
+                while (connection.in.remaining() >= 4) {
+                    int length = connection.in.getInt(connection.in.position());
+                    if (length < 9 || length > MAX_FRAME)
+                        throw new IOException("Bad frame length " + length + ".");
+                    if (connection.in.remaining() < 4 + length)
+                        break;
+
+                    int start = connection.in.position() + 4;
+                    ByteBuffer frame = connection.in.duplicate();
+                    frame.position(start);
+                    frame.limit(start + length);
+                    connection.in.position(start + length);
+                    answer(frame, connection);
+                }
+                connection.compactInput();
+
+                connection.out.flip();
+                while (connection.out.hasRemaining())
+                    channel.write(connection.out);
+                connection.clearOutput();
+            }
+        } catch (IOException e) {
+            // The client went away or broke the protocol: drop the connection.
+        } finally {
+            open.remove(channel);
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Answer one request frame into the connection's output.
+     */
+    private void answer(ByteBuffer frame, Connection connection) {
+        int id = frame.getInt();
+        byte op = frame.get();
+        int start = connection.out.position();
+        connection.reserve(9);
+        connection.out.putInt(0);   // Length, filled in below.
+        connection.out.putInt(id);
+        connection.out.put(OK);
+
+        String error;
+        try {
+            error = answer(op, frame, connection);
+        } catch (BufferUnderflowException e) {
+            error = "Request is shorter than its count.";
+        } catch (RuntimeException e) {
+            // The query failed: report it, and keep serving the connection.
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+        }
+        if (error != null) {
+            connection.out.position(start + 8);
+            byte[] message = error.getBytes(StandardCharsets.UTF_8);
+            connection.reserve(1 + message.length);
+            connection.out.put(ERROR);
+            connection.out.put(message);
+        }
+        connection.out.putInt(start, connection.out.position() - start - 4);
+    }
+
+    /**
+     * Answer the items of a request.
+     *
+     * @return An error message, or null if the request was answered.
+     */
+    private String answer(byte op, ByteBuffer frame, Connection connection) {
+        int count = frame.getInt();
+        if (count < 0)
+            return "Negative count.";
+
+        switch (op) {
+            case DAG_LCA:
+            case DAG_KEY_LCA: {
+                DAG graph = this.graph;
+                if (graph == null)
+                    return "No graph is published.";
+                LcaScratch scratch = this.scratch.poll();
+                if (scratch == null)
+                    scratch = new LcaScratch();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        if (op == DAG_LCA)
+                            answerLca(graph, scratch, frame.getInt(), frame.getInt(), connection);
+                        else answerKeyLca(graph, scratch, frame.getLong(), frame.getLong(), connection);
+                    }
+                } finally {
+                    this.scratch.offer(scratch);
+                }
+                return null;
+            }
+            case TREE_GET: {
+                Object tree = this.tree;
+                if (tree == null)
+                    return "No tree is published.";
+                for (int i = 0; i < count; i++) {
+                    Object value = treeValue(tree, frame.getLong());
+                    byte[] bytes = value != null ? value.toString().getBytes(StandardCharsets.UTF_8) : null;
+                    connection.reserve(4 + (bytes != null ? bytes.length : 0));
+                    connection.out.putInt(bytes != null ? bytes.length : -1);
+                    if (bytes != null)
+                        connection.out.put(bytes);
+                }
+                return null;
+            }
+            case TREE_LCA: {
+                Object tree = this.tree;
+                if (tree == null)
+                    return "No tree is published.";
+                for (int i = 0; i < count; i++) {
+                    Long ancestor = treeAncestor(tree, frame.getLong(), frame.getLong());
+                    connection.reserve(9);
+                    connection.out.put((byte) (ancestor != null ? 1 : 0));
+                    connection.out.putLong(ancestor != null ? ancestor : 0);
+                }
+                return null;
+            }
+            default:
+                return "Unknown op " + op + ".";
+        }
+    }
+
+    /**
+     * @return The value of a key in a served tree. Null if it is missing.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object treeValue(Object tree, long key) {
+        if (tree instanceof LongEytzingerTree)
+            return ((LongEytzingerTree<?>) tree).getValue(key);
+        return ((BinarySearchTree<Long, ?>) tree).getValue(key);
+    }
+
+    /**
+     * @return The lowest common ancestor of two keys in a served tree. Null if either is missing.
+     */
+    @SuppressWarnings("unchecked")
+    private static Long treeAncestor(Object tree, long key1, long key2) {
+        if (tree instanceof LongEytzingerTree) {
+            LongEytzingerTree<?> table = (LongEytzingerTree<?>) tree;
+            if (!table.contains(key1) || !table.contains(key2))
+                return null;
+            return table.lowestCommonAncestor(key1, key2, 0);
+        }
+        return ((BinarySearchTree<Long, ?>) tree).lowestCommonAncestor(key1, key2);
+    }
+
+    private void answerLca(DAG graph, LcaScratch scratch, int v1, int v2, Connection connection) {
+        if (!graph.lowestCommonAncestors(scratch, v1, v2)) {
+            connection.reserve(4);
+            connection.out.putInt(-1);
+            return;
+        }
+        connection.reserve(4 + 4 * scratch.resultCount);
+        connection.out.putInt(scratch.resultCount);
+        for (int j = 0; j < scratch.resultCount; j++)
+            connection.out.putInt(scratch.results[j]);
+    }
+
+    private void answerKeyLca(DAG graph, LcaScratch scratch, long v1, long v2, Connection connection) {
+        int vertex1 = graph.vertex(v1), vertex2 = graph.vertex(v2);
+        if (vertex1 < 0 || vertex2 < 0 || !graph.lowestCommonAncestors(scratch, vertex1, vertex2)) {
+            connection.reserve(4);
+            connection.out.putInt(-1);
+            return;
+        }
+        connection.reserve(4 + 8 * scratch.resultCount);
+        connection.out.putInt(scratch.resultCount);
+        for (int j = 0; j < scratch.resultCount; j++)
+            connection.out.putLong(graph.key(scratch.results[j]));
+    }
+
+    /**
+     * Buffers of one connection.
+     */
+    private static class Connection {
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Move an incomplete frame to the start of the input, growing it to fit the whole frame.
+         * Once no large frame is pending, the input shrinks back to its initial size, so idle
+         * connections do not hold on to the largest frame they have seen.
+         */
+        private void compactInput() {
+            int needed = in.remaining() >= 4 ? 4 + in.getInt(in.position()) : in.remaining();
+            if (needed > in.capacity() || (in.capacity() > BUFFER_SIZE && needed <= BUFFER_SIZE)) {
+                ByteBuffer resized = ByteBuffer.allocate(Math.max(needed, BUFFER_SIZE));
+                resized.put(in);
+                in = resized;
+                return;
+            }
+            in.compact();
+        }
+
+        /**
+         * Empty the output once it is written, shrinking it back to its initial size if it grew.
+         */
+        private void clearOutput() {
+            if (out.capacity() > BUFFER_SIZE)
+                out = ByteBuffer.allocate(BUFFER_SIZE);
+            else out.clear();
+        }
+
+        /**
+         * Make room for more bytes of output.
+         */
+        private void reserve(int bytes) {
+            if (out.remaining() >= bytes)
+                return;
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+    }
+
+    /**
+     * Virtual threads if the JVM has them, found reflectively so the library still runs on
+     * Java 8. Otherwise a cached pool of daemon threads.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(runnable, "lca-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+
+/**
+ * An EytzingerTree over long keys, held in a long array so a lookup compares primitives in place.
+ * Eight keys share a 64 byte cache line, so the three levels below any position are adjacent.
+ */
+public class LongEytzingerTree<Value> {
+    private final long[] keys;       //Keys in Eytzinger order, from position 1.
+    private final Object[] values;  //Value of the key at each position.
+    private final int size;
+
+    /**
+     * Constructor.
+     * @param keys - The keys, in strictly ascending order.
+     * @param values - The value of each key.
+     */
+    public LongEytzingerTree(long[] keys, Value[] values) {
+        EytzingerTree.checkSize(keys.length, values.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null) {
+                throw new IllegalArgumentException("Values must not be null.");
+            }
+            if (i > 0 && keys[i - 1] >= keys[i]) {
+                throw new IllegalArgumentException("Keys must be in strictly ascending order.");
+            }
+        }
+
+        size = keys.length;
+        this.keys = new long[size + 1];
+        this.values = new Object[size + 1];
+        for (int i = 0, position = EytzingerTree.first(size); i < size; i++, position = EytzingerTree.next(position, size)) {
+            this.keys[position] = keys[i];
+            this.values[position] = values[i];
+        }
+    }
+
+    /**
+     * Compile a BinarySearchTree over Long keys, as BinarySearchTree.compile() does.
+     *
+     * @param tree - The tree to compile.
+     * @return       The compiled tree.
+     */
+    @SuppressWarnings("unchecked")
+    public static <Value> LongEytzingerTree<Value> compile(BinarySearchTree<Long, Value> tree) {
+        ArrayList<Long> keys = new ArrayList<Long>();
+        ArrayList<Value> values = new ArrayList<Value>();
+        tree.inOrder(keys, values);
+        long[] sorted = new long[keys.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = keys.get(i);
+        }
+        return new LongEytzingerTree<Value>(sorted, values.toArray((Value[]) new Object[values.size()]));
+    }
+
+    /**
+     * @return The number of keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Search for a key, and then return its value.
+     *
+     * @param key - The key being searched for.
+     * @return      The value of the key, if found. Null if not found.
+     */
+    @SuppressWarnings("unchecked")
+    public Value getValue(long key) {
+        return (Value) values[find(key)];
+    }
+
+    /**
+     * Returns whether or not a given key exists in the tree.
+     * @param key - The key being searched for.
+     * @return Whether or not the key exists.
+     */
+    public boolean contains(long key) {
+        return find(key) != 0;
+    }
+
+    /**
+     * Return the lowest parent that two keys have in common, in the complete tree.
+     *
+     * @param key1    - The first key.
+     * @param key2    - The second key.
+     * @param missing - What to return if either key is not in the tree.
+     * @return          The lowest common ancestor, or missing.
+     */
+    public long lowestCommonAncestor(long key1, long key2, long missing) {
+        int position1 = find(key1), position2 = find(key2);
+        if (position1 == 0 || position2 == 0) {
+            return missing;
+        }
+        return keys[EytzingerTree.ancestor(position1, position2)];
+    }
+
+    /**
+     * @return The position of a key, or 0 if it is not in the tree.
+     */
+    private int find(long key) {
+        long[] keys = this.keys;
+        int position = 1;
+        while (position <= size) {
+            position = 2 * position + (keys[position] < key ? 1 : 0);
+        }
+        position = EytzingerTree.lowerBound(position);
+        return position != 0 && keys[position] == key ? position : 0;
+    }
+}
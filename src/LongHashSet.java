@@ -0,0 +1,93 @@
+import java.util.Arrays;
+
+/**
+ * A set of non-negative longs using open addressing with linear probing.
+ * Values are stored unboxed, so membership checks do not allocate.
+ */
+class LongHashSet {
+    private static final long FREE = -1;            // Marks an unused slot. Never a valid value.
+    private static final double MAX_LOAD = 0.5;
+
+    private long[] slots;
+    private int size;
+
+    /**
+     * Constructor.
+     * @param expected - The number of values expected, used to size the table up front.
+     */
+    LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expected)
+            capacity <<= 1;
+        slots = new long[capacity];
+        Arrays.fill(slots, FREE);
+    }
+
+    /**
+     * @return The number of values in the set.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param value - A non-negative value.
+     * @return Whether or not the set contains the value.
+     */
+    boolean contains(long value) {
+        int mask = slots.length - 1;
+        for (int i = index(value, mask); slots[i] != FREE; i = (i + 1) & mask) {
+            if (slots[i] == value)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add a value to the set.
+     *
+     * @param value - A non-negative value.
+     * @return Whether or not the value was added, i.e. it was not already present.
+     */
+    boolean add(long value) {
+        int mask = slots.length - 1;
+        int i = index(value, mask);
+        for (; slots[i] != FREE; i = (i + 1) & mask) {
+            if (slots[i] == value)
+                return false;
+        }
+        slots[i] = value;
+        if (++size > slots.length * MAX_LOAD)
+            grow();
+        return true;
+    }
+
+    /**
+     * Double the table size and reinsert every value.
+     */
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        Arrays.fill(slots, FREE);
+
+        int mask = slots.length - 1;
+        for (long value : old) {
+            if (value != FREE) {
+                int i = index(value, mask);
+                while (slots[i] != FREE)
+                    i = (i + 1) & mask;
+                slots[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a value over the table (the finaliser of MurmurHash3).
+     */
+    private static int index(long value, int mask) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        return (int) value & mask;
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+/**
+ * A map from any long to a non-negative int, using open addressing with linear probing.
+ * Keys and values are stored unboxed in parallel arrays, so lookups do not allocate.
+ */
+class LongIntHashMap {
+    private static final int FREE = -1;             // Marks an unused slot. Never a valid value.
+    private static final double MAX_LOAD = 0.5;
+
+    private long[] keys;
+    private int[] values;       // Value in each slot. FREE if the slot is unused.
+    private int size;
+
+    /**
+     * Constructor.
+     * @param expected - The number of keys expected, used to size the table up front.
+     */
+    LongIntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expected)
+            capacity <<= 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, FREE);
+    }
+
+    /**
+     * Constructor for a copy of another map.
+     * @param source - The map to copy.
+     */
+    LongIntHashMap(LongIntHashMap source) {
+        keys = source.keys.clone();
+        values = source.values.clone();
+        size = source.size;
+    }
+
+    /**
+     * @return The number of keys in the map.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param key - The key.
+     * @return The value mapped to the key. -1 if there is none.
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); values[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Map a key to a value, replacing any value it had.
+     *
+     * @param key - The key.
+     * @param value - A non-negative value.
+     */
+    void put(long key, int value) {
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        for (; values[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length * MAX_LOAD)
+            grow();
+    }
+
+    /**
+     * Remove a key and its value, if present.
+     * The keys after it in its probe run are shifted back, so no tombstone is left behind.
+     *
+     * @param key - The key.
+     */
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int hole = index(key, mask);
+        for (; values[hole] != FREE; hole = (hole + 1) & mask) {
+            if (keys[hole] == key)
+                break;
+        }
+        if (values[hole] == FREE)
+            return;
+        size--;
+
+        // Move back each later key of the run whose home slot is not between the hole and it.
+        for (int i = (hole + 1) & mask; values[i] != FREE; i = (i + 1) & mask) {
+            int home = index(keys[i], mask);
+            boolean stays = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!stays) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = FREE;
+    }
+
+    /**
+     * Double the table size and reinsert every key.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, FREE);
+
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != FREE) {
+                int i = index(oldKeys[j], mask);
+                while (values[i] != FREE)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a key over the table (the finaliser of MurmurHash3).
+     */
+    private static int index(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}